@@ -0,0 +1,158 @@
+package com.rsicms.rsuite.utils.search;
+
+import com.reallysi.rsuite.api.RSuiteException;
+
+/**
+ * Concurrency limit that adapts to observed latency using additive increase, multiplicative
+ * decrease (AIMD). Callers over the limit queue up to a bounded length and for a bounded time;
+ * beyond that, they are shed.
+ * <p>
+ * The limit grows by one permit per limit's worth of calls completed within the target latency
+ * while the limit was fully in use, and is multiplied by the backoff ratio when a call exceeds the
+ * target latency. Once decreased, the limit is not decreased again until the calls that were in
+ * flight have completed, as they were admitted under the previous limit; otherwise, a burst of slow
+ * calls would collapse the limit to its floor.
+ */
+public class AdaptiveConcurrencyLimit {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetLatencyMillis;
+  private final double backoffRatio;
+  private final int maxQueueLength;
+  private final long queueTimeoutMillis;
+
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  private double limit;
+
+  /**
+   * Number of calls still to complete before the limit may be decreased again.
+   */
+  private int decreaseHoldoff;
+
+  private int inFlight;
+  private int queued;
+  private long shedCount;
+
+  /**
+   * Construct a limit.
+   * 
+   * @param initialLimit Number of concurrent permits to start with.
+   * @param minLimit Floor of the limit. At least one.
+   * @param maxLimit Ceiling of the limit.
+   * @param targetLatencyMillis Calls taking longer than this shrink the limit.
+   * @param backoffRatio Multiplier applied to the limit on a slow call, between 0 and 1.
+   * @param maxQueueLength Number of callers allowed to wait for a permit; others are shed.
+   * @param queueTimeoutMillis Maximum time a caller waits for a permit.
+   */
+  public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit,
+      long targetLatencyMillis, double backoffRatio, int maxQueueLength, long queueTimeoutMillis) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("Limits must satisfy 1 <= min <= max.");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("Backoff ratio must be between 0 and 1.");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    this.targetLatencyMillis = targetLatencyMillis;
+    this.backoffRatio = backoffRatio;
+    this.maxQueueLength = maxQueueLength;
+    this.queueTimeoutMillis = queueTimeoutMillis;
+  }
+
+  /**
+   * Acquire a permit, waiting up to the queue timeout.
+   * 
+   * @throws RSuiteException Thrown if the queue is full or the wait timed out.
+   */
+  public void acquire() throws RSuiteException {
+    acquire(queueTimeoutMillis);
+  }
+
+  /**
+   * Acquire a permit, waiting up to the lesser of the given time and the queue timeout.
+   * 
+   * @param maxWaitMillis
+   * @throws RSuiteException Thrown if the queue is full or the wait timed out.
+   */
+  public synchronized void acquire(long maxWaitMillis) throws RSuiteException {
+    if (inFlight < (int) limit) {
+      inFlight++;
+      return;
+    }
+    if (queued >= maxQueueLength) {
+      shedCount++;
+      throw new RSuiteException("Search rejected: " + inFlight + " in flight and " + queued
+          + " queued, which is the maximum.");
+    }
+
+    long waitMillis = Math.min(maxWaitMillis, queueTimeoutMillis);
+    long deadline = System.currentTimeMillis() + waitMillis;
+    queued++;
+    try {
+      while (inFlight >= (int) limit) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          shedCount++;
+          throw new RSuiteException(
+              "Search rejected: no permit became available within " + waitMillis + " millis.");
+        }
+        wait(remaining);
+      }
+      inFlight++;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RSuiteException("Search rejected: interrupted while waiting for a permit.");
+    } finally {
+      queued--;
+    }
+  }
+
+  /**
+   * Release a permit, adjusting the limit by the call's latency.
+   * 
+   * @param latencyMillis
+   */
+  public synchronized void release(long latencyMillis) {
+    latencies.record(latencyMillis);
+    boolean saturated = inFlight >= (int) limit;
+    inFlight--;
+    boolean mayDecrease = decreaseHoldoff == 0;
+    if (!mayDecrease) {
+      decreaseHoldoff--;
+    }
+    if (latencyMillis > targetLatencyMillis) {
+      if (mayDecrease) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+        decreaseHoldoff = inFlight;
+      }
+    } else if (saturated) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized int getQueued() {
+    return queued;
+  }
+
+  public synchronized long getShedCount() {
+    return shedCount;
+  }
+
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+}
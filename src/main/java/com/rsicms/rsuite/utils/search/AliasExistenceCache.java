@@ -0,0 +1,356 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Bounded cache of alias lookups known to have no matches, optionally fronted by Bloom filters of
+ * every alias type and text known to exist.
+ * <p>
+ * Intended for ingest-style checks, where most lookups are expected to miss. A miss recorded by a
+ * search is remembered per base XPath expression (the search scope), as a search restricted to
+ * one qualified name says nothing about others. A Bloom filter's answer is scope-free: if a value
+ * was never added, no MO anywhere has it.
+ * <p>
+ * Recorded misses expire after a configurable time to live, which bounds how long a miss may be
+ * wrong when an alias is created without calling the invalidation hooks, such as by another
+ * RSuite node.
+ * <p>
+ * Only load a Bloom filter from a complete alias export, and report every alias created afterwards
+ * via {@link #aliasCreated(String, String)} or {@link #valueCreated(boolean, String)}. Otherwise,
+ * the filter will claim values are absent when they are not. A Bloom filter does not expire, so
+ * only use one when every alias creation goes through this cache's invalidation hooks.
+ * <p>
+ * Instances are thread-safe and may be shared.
+ */
+public class AliasExistenceCache {
+
+  /**
+   * Default time to live of a recorded miss.
+   */
+  public final static long DEFAULT_MISS_TTL_MILLIS = 60000;
+
+  private final int maxEntries;
+  private final long missTtlMillis;
+
+  /**
+   * Least recently used first. Key is the lookup key of the alias value; value maps each search
+   * scope the alias value is known to be absent from to when that was recorded.
+   */
+  private final LinkedHashMap<String, Map<String, Long>> absent;
+
+  private BloomFilter typeFilter;
+  private BloomFilter textFilter;
+
+  /**
+   * Bloom filter loads in progress.
+   */
+  private final List<BloomFilterLoad> loads = new ArrayList<BloomFilterLoad>(2);
+
+  /**
+   * Incremented whenever an alias value is created or invalidated. Used to avoid recording a miss
+   * observed by a search that raced with the creation of the same value.
+   */
+  private long generation;
+
+  /**
+   * Construct a cache that remembers misses for up to the specified number of alias values, for
+   * {@link #DEFAULT_MISS_TTL_MILLIS}.
+   * 
+   * @param maxEntries
+   */
+  public AliasExistenceCache(int maxEntries) {
+    this(maxEntries, DEFAULT_MISS_TTL_MILLIS);
+  }
+
+  /**
+   * Construct a cache that remembers misses for up to the specified number of alias values, for up
+   * to the specified time.
+   * 
+   * @param maxEntries
+   * @param missTtlMillis How long a recorded miss may be relied upon.
+   */
+  public AliasExistenceCache(final int maxEntries, long missTtlMillis) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("Max entries must be positive.");
+    }
+    if (missTtlMillis <= 0) {
+      throw new IllegalArgumentException("Miss time to live must be positive.");
+    }
+    this.maxEntries = maxEntries;
+    this.missTtlMillis = missTtlMillis;
+    this.absent = new LinkedHashMap<String, Map<String, Long>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Map<String, Long>> eldest) {
+        return size() > AliasExistenceCache.this.maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Use the given Bloom filter to answer definite misses for alias types or texts. Send in null to
+   * stop using a filter.
+   * 
+   * @param valuesAreTypes True if the filter holds alias types; false for alias texts.
+   * @param filter
+   */
+  public synchronized void setBloomFilter(boolean valuesAreTypes, BloomFilter filter) {
+    if (valuesAreTypes)
+      typeFilter = filter;
+    else
+      textFilter = filter;
+  }
+
+  /**
+   * Load a Bloom filter from a bulk export of alias types or texts, one value per line. Blank lines
+   * are ignored. The reader is not closed.
+   * <p>
+   * Values created while the export is read are added to the new filter. To also cover values
+   * created while the export is taken, call {@link #beginBloomFilterLoad(boolean)} before taking
+   * it, then {@link BloomFilterLoad#load(Reader, int, double)}.
+   * 
+   * @param valuesAreTypes True if the export lists alias types; false for alias texts.
+   * @param export
+   * @param expectedInsertions Approximate number of values in the export.
+   * @param falsePositiveProbability
+   * @return Number of values loaded.
+   * @throws IOException
+   */
+  public int loadBloomFilter(boolean valuesAreTypes, Reader export, int expectedInsertions,
+      double falsePositiveProbability) throws IOException {
+    return beginBloomFilterLoad(valuesAreTypes).load(export, expectedInsertions,
+        falsePositiveProbability);
+  }
+
+  /**
+   * Start recording the alias values reported created, so that a Bloom filter loaded from an
+   * export taken from now on does not miss them.
+   * 
+   * @param valuesAreTypes True if the export will list alias types; false for alias texts.
+   * @return the load, which must be completed or abandoned.
+   */
+  public synchronized BloomFilterLoad beginBloomFilterLoad(boolean valuesAreTypes) {
+    BloomFilterLoad load = new BloomFilterLoad(valuesAreTypes);
+    loads.add(load);
+    return load;
+  }
+
+  /**
+   * A Bloom filter load begun by {@link AliasExistenceCache#beginBloomFilterLoad(boolean)}.
+   */
+  public class BloomFilterLoad {
+
+    private final boolean valuesAreTypes;
+
+    /**
+     * Values reported created since the load began. Guarded by the cache.
+     */
+    private final List<String> created = new ArrayList<String>();
+
+    private BloomFilterLoad(boolean valuesAreTypes) {
+      this.valuesAreTypes = valuesAreTypes;
+    }
+
+    /**
+     * Build a Bloom filter from an export of alias types or texts, one value per line, add the
+     * values reported created since the load began, and start using it. Blank lines are ignored.
+     * The reader is not closed.
+     * 
+     * @param export
+     * @param expectedInsertions Approximate number of values in the export.
+     * @param falsePositiveProbability
+     * @return Number of values loaded from the export.
+     * @throws IOException Thrown if the export cannot be read, in which case the current filter
+     *         is kept.
+     */
+    public int load(Reader export, int expectedInsertions, double falsePositiveProbability)
+        throws IOException {
+      try {
+        // Read outside of the cache's lock, so lookups are not blocked by the export.
+        BloomFilter filter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+        BufferedReader reader = new BufferedReader(export);
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (StringUtils.isNotBlank(line)) {
+            filter.put(line.trim());
+            count++;
+          }
+        }
+
+        synchronized (AliasExistenceCache.this) {
+          for (String value : created) {
+            filter.put(value);
+          }
+          setBloomFilter(valuesAreTypes, filter);
+        }
+        return count;
+      } finally {
+        abandon();
+      }
+    }
+
+    /**
+     * Stop recording created values, without changing the Bloom filter.
+     */
+    public void abandon() {
+      synchronized (AliasExistenceCache.this) {
+        loads.remove(this);
+      }
+    }
+  }
+
+  /**
+   * Get the current generation, to be passed back into
+   * {@link #recordAbsent(String, boolean, List, long)} once the search completes.
+   * 
+   * @return the current generation.
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Find out if none of the alias values can match within the given scope.
+   * 
+   * @param scope Base XPath expression of the search.
+   * @param valuesAreTypes
+   * @param values
+   * @return true if every value is known to be absent; false if a search is required.
+   */
+  public synchronized boolean isKnownAbsent(String scope, boolean valuesAreTypes,
+      List<String> values) {
+    BloomFilter filter = valuesAreTypes ? typeFilter : textFilter;
+    long now = System.currentTimeMillis();
+    for (String value : values) {
+      String trimmed = value.trim();
+      if (filter != null && !filter.mightContain(trimmed))
+        continue;
+      String key = getKey(valuesAreTypes, trimmed);
+      Map<String, Long> scopes = absent.get(key);
+      if (scopes == null)
+        return false;
+      Long recordedAt = scopes.get(scope);
+      if (recordedAt == null)
+        return false;
+      if (now - recordedAt >= missTtlMillis) {
+        expire(key, scopes, now);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remember that a search within the given scope found none of the alias values.
+   * <p>
+   * Ignored if any value was created or invalidated since the given generation.
+   * 
+   * @param scope Base XPath expression of the search.
+   * @param valuesAreTypes
+   * @param values
+   * @param generation Value of {@link #getGeneration()} obtained before the search started.
+   */
+  public synchronized void recordAbsent(String scope, boolean valuesAreTypes, List<String> values,
+      long generation) {
+    if (generation != this.generation)
+      return;
+    long now = System.currentTimeMillis();
+    for (String value : values) {
+      String key = getKey(valuesAreTypes, value.trim());
+      Map<String, Long> scopes = absent.get(key);
+      if (scopes == null) {
+        scopes = new HashMap<String, Long>(2);
+        absent.put(key, scopes);
+      }
+      scopes.put(scope, now);
+    }
+  }
+
+  /**
+   * Drop the expired misses of an alias value. Caller must hold the lock.
+   */
+  private void expire(String key, Map<String, Long> scopes, long now) {
+    Iterator<Long> recordedAt = scopes.values().iterator();
+    while (recordedAt.hasNext()) {
+      if (now - recordedAt.next() >= missTtlMillis)
+        recordedAt.remove();
+    }
+    if (scopes.isEmpty())
+      absent.remove(key);
+  }
+
+  /**
+   * Invalidation hook to call after creating an alias.
+   * 
+   * @param aliasType Optional alias type.
+   * @param aliasText Alias text.
+   */
+  public void aliasCreated(String aliasType, String aliasText) {
+    if (StringUtils.isNotBlank(aliasType))
+      valueCreated(true, aliasType);
+    valueCreated(false, aliasText);
+  }
+
+  /**
+   * Invalidation hook to call after creating an alias with the given type or text. Drops recorded
+   * misses for the value and adds it to the Bloom filter, if there is one.
+   * 
+   * @param valuesAreTypes
+   * @param value
+   */
+  public synchronized void valueCreated(boolean valuesAreTypes, String value) {
+    String trimmed = value.trim();
+    BloomFilter filter = valuesAreTypes ? typeFilter : textFilter;
+    if (filter != null)
+      filter.put(trimmed);
+    for (BloomFilterLoad load : loads) {
+      if (load.valuesAreTypes == valuesAreTypes)
+        load.created.add(trimmed);
+    }
+    invalidate(valuesAreTypes, trimmed);
+  }
+
+  /**
+   * Drop recorded misses for an alias type or text.
+   * 
+   * @param valuesAreTypes
+   * @param value
+   */
+  public synchronized void invalidate(boolean valuesAreTypes, String value) {
+    absent.remove(getKey(valuesAreTypes, value.trim()));
+    generation++;
+  }
+
+  /**
+   * Drop all recorded misses. Bloom filters are retained.
+   */
+  public synchronized void clear() {
+    absent.clear();
+    generation++;
+  }
+
+  /**
+   * @return the number of alias values with recorded misses, including expired misses not yet
+   *         dropped.
+   */
+  public synchronized int size() {
+    return absent.size();
+  }
+
+  private static String getKey(boolean valuesAreTypes, String value) {
+    return new StringBuilder(valuesAreTypes ? "type:" : "text:").append(value).toString();
+  }
+
+}
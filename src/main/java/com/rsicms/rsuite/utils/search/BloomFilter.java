@@ -0,0 +1,90 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.util.BitSet;
+
+/**
+ * A basic Bloom filter of strings. It can answer "definitely not present" without a false negative,
+ * and "might be present" with the configured probability of a false positive.
+ * <p>
+ * Instances are not thread-safe on their own; {@link AliasExistenceCache} guards its filters.
+ */
+public class BloomFilter {
+
+  private final BitSet bits;
+  private final int bitCount;
+  private final int hashCount;
+
+  /**
+   * Size a filter for the expected number of values and desired false positive probability.
+   * 
+   * @param expectedInsertions Number of values expected to be added. Must be positive.
+   * @param falsePositiveProbability Desired false positive probability, between 0 and 1 exclusive.
+   */
+  public BloomFilter(int expectedInsertions, double falsePositiveProbability) {
+    if (expectedInsertions <= 0) {
+      throw new IllegalArgumentException("Expected insertions must be positive.");
+    }
+    if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+      throw new IllegalArgumentException("False positive probability must be between 0 and 1.");
+    }
+    long m = (long) Math.ceil(
+        -expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+    this.bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE, m));
+    this.hashCount =
+        Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    this.bits = new BitSet(bitCount);
+  }
+
+  /**
+   * Add a value to the filter.
+   * 
+   * @param value
+   */
+  public void put(String value) {
+    long h1 = hash1(value);
+    long h2 = hash2(value);
+    for (int i = 0; i < hashCount; i++) {
+      bits.set(index(h1, h2, i));
+    }
+  }
+
+  /**
+   * Find out if the value might have been added.
+   * 
+   * @param value
+   * @return false if the value was definitely never added; true if it might have been.
+   */
+  public boolean mightContain(String value) {
+    long h1 = hash1(value);
+    long h2 = hash2(value);
+    for (int i = 0; i < hashCount; i++) {
+      if (!bits.get(index(h1, h2, i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int index(long h1, long h2, int i) {
+    long combined = h1 + i * h2;
+    return (int) ((combined & Long.MAX_VALUE) % bitCount);
+  }
+
+  private static long hash1(String value) {
+    int h = value.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * 64-bit FNV-1a over the string's characters.
+   */
+  private static long hash2(String value) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      h ^= value.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h | 1; // Keep odd so successive probes differ.
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact, thread-safe histogram of latencies in milliseconds, with buckets growing by 10% so that
+ * percentiles are accurate to within 10%.
+ */
+public class LatencyHistogram {
+
+  private final static double GROWTH = 1.1;
+
+  /**
+   * Enough buckets to cover about two days.
+   */
+  private final static int BUCKET_COUNT = 200;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  /**
+   * Record one latency.
+   * 
+   * @param millis
+   */
+  public void record(long millis) {
+    counts.incrementAndGet(getBucket(millis));
+  }
+
+  /**
+   * @return the number of latencies recorded.
+   */
+  public long getCount() {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Get the latency at or below which the given percentage of recorded latencies fall.
+   * 
+   * @param percentile Between 0 and 100.
+   * @return the upper bound of the bucket containing the percentile, in milliseconds; 0 if nothing
+   *         was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        return getUpperBound(i);
+      }
+    }
+    return getUpperBound(BUCKET_COUNT - 1);
+  }
+
+  /**
+   * Forget all recorded latencies.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  private static int getBucket(long millis) {
+    if (millis <= 1) {
+      return 0;
+    }
+    int bucket = (int) Math.ceil(Math.log(millis) / Math.log(GROWTH));
+    return Math.min(bucket, BUCKET_COUNT - 1);
+  }
+
+  private static long getUpperBound(int bucket) {
+    return (long) Math.floor(Math.pow(GROWTH, bucket));
+  }
+
+}
@@ -0,0 +1,299 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+/**
+ * Opt-in recorder of the searches made through {@link SearchUtils}, for capacity planning.
+ * <p>
+ * Install with {@link SearchUtils#setQueryWorkloadRecorder(QueryWorkloadRecorder)}. Each search
+ * appends one tab-separated line to the file: start time, search milliseconds, handler
+ * milliseconds, result count, outcome, query class, parameter cardinalities, normalized query shape
+ * and, optionally, the query itself. Search milliseconds exclude the time the caller's result
+ * handler took, which is recorded separately, so they reflect the cost of the search itself.
+ * <p>
+ * The shape has every quoted value replaced by "?" and every parenthesized list of values by "(?)";
+ * the cardinalities list the number of values in each such list, in order. Shapes allow the mix of
+ * queries to be analyzed; the query text is what {@link QueryWorkloadReplayer} replays.
+ * <p>
+ * Output is buffered, and flushed at most once a second unless {@link #flush()} is called. Call
+ * {@link #close()} when done. Recording failures are logged rather than failing searches.
+ */
+public class QueryWorkloadRecorder {
+
+  /**
+   * Class log
+   */
+  private final static Log log = LogFactory.getLog(QueryWorkloadRecorder.class);
+
+  /**
+   * Outcome of a search that completed.
+   */
+  public final static String OUTCOME_OK = "ok";
+
+  /**
+   * Outcome of a search stopped by its cancellation token, returning partial results.
+   */
+  public final static String OUTCOME_TRUNCATED = "truncated";
+
+  /**
+   * Outcome of a search that threw an exception.
+   */
+  public final static String OUTCOME_ERROR = "error";
+
+  private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final static long FLUSH_INTERVAL_MILLIS = 1000;
+
+  /**
+   * A parenthesized list of one or more quoted values.
+   */
+  private final static Pattern VALUE_LIST =
+      Pattern.compile("\\(\\s*'[^']*'(\\s*,\\s*'[^']*')*\\s*\\)");
+
+  private final static Pattern VALUE = Pattern.compile("'[^']*'");
+
+  /**
+   * A number compared to, as in the ID range predicate.
+   */
+  private final static Pattern NUMBER =
+      Pattern.compile("(\\s(?:eq|ne|lt|le|gt|ge|=|!=|<|<=|>|>=)\\s)-?\\d+");
+
+  private final boolean recordQueryText;
+  private final Writer writer;
+  private long lastFlush = System.currentTimeMillis();
+
+  /**
+   * Construct a recorder appending to the given file.
+   * 
+   * @param file Created if it does not exist.
+   * @param recordQueryText Submit true to record each query in full, which replay requires. Submit
+   *        false to only record shapes, such as when search values are sensitive.
+   * @throws IOException
+   */
+  public QueryWorkloadRecorder(File file, boolean recordQueryText) throws IOException {
+    this.recordQueryText = recordQueryText;
+    this.writer =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+  }
+
+  /**
+   * Record one search.
+   * 
+   * @param query
+   * @param queryClass The class the query was declared or classified as. May send in null to have
+   *        the query classified.
+   * @param startMillis
+   * @param searchMillis Time spent searching and retrieving results, excluding handler time.
+   * @param handlerMillis Time spent handling results.
+   * @param resultCount
+   * @param outcome One of the OUTCOME constants.
+   */
+  public void record(String query, QueryClass queryClass, long startMillis, long searchMillis,
+      long handlerMillis, int resultCount, String outcome) {
+    StringBuilder line = new StringBuilder().append(startMillis).append('\t').append(searchMillis)
+        .append('\t').append(handlerMillis).append('\t').append(resultCount).append('\t')
+        .append(outcome).append('\t')
+        .append(queryClass != null ? queryClass : SearchGovernor.classify(query)).append('\t');
+
+    StringBuilder cardinalities = new StringBuilder();
+    String shape = getShape(query, cardinalities);
+    line.append(cardinalities).append('\t').append(shape).append('\t');
+    if (recordQueryText) {
+      line.append(clean(query));
+    }
+    line.append('\n');
+
+    synchronized (this) {
+      try {
+        writer.write(line.toString());
+        long now = System.currentTimeMillis();
+        if (now - lastFlush >= FLUSH_INTERVAL_MILLIS) {
+          writer.flush();
+          lastFlush = now;
+        }
+      } catch (IOException e) {
+        log.warn("Unable to record search workload.", e);
+      }
+    }
+  }
+
+  /**
+   * Write any buffered records to the file.
+   * 
+   * @throws IOException
+   */
+  public synchronized void flush() throws IOException {
+    writer.flush();
+    lastFlush = System.currentTimeMillis();
+  }
+
+  /**
+   * Flush and close the file.
+   * 
+   * @throws IOException
+   */
+  public synchronized void close() throws IOException {
+    writer.close();
+  }
+
+  /**
+   * Normalize a query into its shape.
+   * 
+   * @param query
+   * @param cardinalities Receives the comma-delimited number of values in each list of values.
+   * @return the query's shape.
+   */
+  public static String getShape(String query, StringBuilder cardinalities) {
+    StringBuffer shape = new StringBuffer();
+    Matcher lists = VALUE_LIST.matcher(clean(query));
+    while (lists.find()) {
+      int count = 0;
+      Matcher values = VALUE.matcher(lists.group());
+      while (values.find()) {
+        count++;
+      }
+      if (cardinalities.length() > 0)
+        cardinalities.append(',');
+      cardinalities.append(count);
+      lists.appendReplacement(shape, "(?)");
+    }
+    lists.appendTail(shape);
+    String normalized = VALUE.matcher(shape).replaceAll("?");
+    return NUMBER.matcher(normalized).replaceAll("$1?");
+  }
+
+  /**
+   * Read a recorded workload.
+   * 
+   * @param file
+   * @return the recorded searches, in the order recorded.
+   * @throws IOException
+   */
+  public static List<RecordedQuery> read(File file) throws IOException {
+    List<RecordedQuery> queries = new ArrayList<RecordedQuery>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 9) {
+          log.warn("Skipping malformed workload record: " + line);
+          continue;
+        }
+        try {
+          queries.add(new RecordedQuery(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+              Long.parseLong(fields[2]), Integer.parseInt(fields[3]), fields[4],
+              QueryClass.valueOf(fields[5]), fields[6], fields[7], fields[8]));
+        } catch (IllegalArgumentException e) {
+          // Includes NumberFormatException.
+          log.warn("Skipping malformed workload record: " + line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return queries;
+  }
+
+  /**
+   * Keep each record on one line.
+   */
+  private static String clean(String query) {
+    return query.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  /**
+   * One recorded search.
+   */
+  public static class RecordedQuery {
+
+    private final long startMillis;
+    private final long searchMillis;
+    private final long handlerMillis;
+    private final int resultCount;
+    private final String outcome;
+    private final QueryClass queryClass;
+    private final String cardinalities;
+    private final String shape;
+    private final String query;
+
+    private RecordedQuery(long startMillis, long searchMillis, long handlerMillis,
+        int resultCount, String outcome, QueryClass queryClass, String cardinalities, String shape,
+        String query) {
+      this.startMillis = startMillis;
+      this.searchMillis = searchMillis;
+      this.handlerMillis = handlerMillis;
+      this.resultCount = resultCount;
+      this.outcome = outcome;
+      this.queryClass = queryClass;
+      this.cardinalities = cardinalities;
+      this.shape = shape;
+      this.query = query;
+    }
+
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    /**
+     * @return the time spent searching and retrieving results, excluding handler time.
+     */
+    public long getSearchMillis() {
+      return searchMillis;
+    }
+
+    public long getHandlerMillis() {
+      return handlerMillis;
+    }
+
+    public int getResultCount() {
+      return resultCount;
+    }
+
+    /**
+     * @return one of the OUTCOME constants.
+     */
+    public String getOutcome() {
+      return outcome;
+    }
+
+    public QueryClass getQueryClass() {
+      return queryClass;
+    }
+
+    public String getCardinalities() {
+      return cardinalities;
+    }
+
+    public String getShape() {
+      return shape;
+    }
+
+    /**
+     * @return the query, or an empty string if query text was not recorded.
+     */
+    public String getQuery() {
+      return query;
+    }
+  }
+
+}
@@ -0,0 +1,236 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.reallysi.rsuite.api.User;
+import com.reallysi.rsuite.service.SearchService;
+import com.rsicms.rsuite.utils.search.QueryWorkloadRecorder.RecordedQuery;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+/**
+ * Re-runs a workload recorded by {@link QueryWorkloadRecorder} against a search service, at a
+ * configurable concurrency and rate, and reports throughput and latency percentiles.
+ * <p>
+ * Searches are run through {@link SearchUtils#scanObjects(User, SearchService, String,
+ * SearchGovernor.QueryClass, SearchCancellationToken, SearchResultHandler)}, declaring the query
+ * class recorded, so every result is fetched as it would be in production, and any installed search
+ * governor applies. Uninstall the workload recorder first, lest the replay be recorded.
+ * <p>
+ * Recorded searches without query text are skipped. So are searches that were truncated or failed
+ * when recorded, as replaying them in full would not reproduce the recorded load; they are counted
+ * separately in the report.
+ */
+public class QueryWorkloadReplayer {
+
+  /**
+   * Class log
+   */
+  private final static Log log = LogFactory.getLog(QueryWorkloadReplayer.class);
+
+  private final int concurrency;
+  private final double queriesPerSecond;
+
+  /**
+   * Construct a replayer.
+   * 
+   * @param concurrency Maximum number of searches in flight.
+   * @param queriesPerSecond Rate at which to start searches. Send in 0 or less to start them as
+   *        fast as the concurrency allows.
+   */
+  public QueryWorkloadReplayer(int concurrency, double queriesPerSecond) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("Concurrency must be positive.");
+    }
+    this.concurrency = concurrency;
+    this.queriesPerSecond = queriesPerSecond;
+  }
+
+  /**
+   * Replay the workload recorded in a file.
+   * 
+   * @param user
+   * @param searchService
+   * @param file
+   * @return the replay's report.
+   * @throws IOException Thrown if the file cannot be read.
+   * @throws InterruptedException
+   */
+  public Report replay(User user, SearchService searchService, File file)
+      throws IOException, InterruptedException {
+    return replay(user, searchService, QueryWorkloadRecorder.read(file));
+  }
+
+  /**
+   * Replay recorded searches, in order.
+   * 
+   * @param user
+   * @param searchService
+   * @param queries
+   * @return the replay's report.
+   * @throws InterruptedException
+   */
+  public Report replay(final User user, final SearchService searchService,
+      List<RecordedQuery> queries) throws InterruptedException {
+    if (SearchUtils.getQueryWorkloadRecorder() != null) {
+      log.warn("A query workload recorder is installed; the replay will be recorded.");
+    }
+
+    final Report report = new Report();
+    final Semaphore permits = new Semaphore(concurrency);
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    long intervalNanos = queriesPerSecond > 0 ? (long) (1000000000L / queriesPerSecond) : 0;
+    long start = System.nanoTime();
+    long nextStart = start;
+    try {
+      for (RecordedQuery recorded : queries) {
+        final String query = recorded.getQuery();
+        final QueryClass queryClass = recorded.getQueryClass();
+        if (query == null || query.length() == 0) {
+          report.skipped.incrementAndGet();
+          continue;
+        }
+        if (!QueryWorkloadRecorder.OUTCOME_OK.equals(recorded.getOutcome())) {
+          report.skippedIncomplete.incrementAndGet();
+          continue;
+        }
+        if (intervalNanos > 0) {
+          long waitNanos = nextStart - System.nanoTime();
+          if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+          }
+          nextStart += intervalNanos;
+        }
+        permits.acquire();
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            long queryStart = System.currentTimeMillis();
+            try {
+              int count = SearchUtils.scanObjects(user, searchService, query, queryClass, null,
+                  new SearchResultHandler() {
+                    @Override
+                    public boolean handleResult(ManagedObject mo, int position) {
+                      return true;
+                    }
+                  });
+              report.results.addAndGet(count);
+              report.completed.incrementAndGet();
+            } catch (RSuiteException e) {
+              report.failed.incrementAndGet();
+              log.warn("Replayed search failed: " + query, e);
+            } finally {
+              report.latencies.record(System.currentTimeMillis() - queryStart);
+              permits.release();
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    log.info(report.toString());
+    return report;
+  }
+
+  /**
+   * Outcome of a replay.
+   */
+  public static class Report {
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong skippedIncomplete = new AtomicLong();
+    private final AtomicLong results = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long elapsedMillis;
+
+    private Report() {}
+
+    public long getCompleted() {
+      return completed.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    /**
+     * @return the number of recorded searches skipped for lack of query text.
+     */
+    public long getSkipped() {
+      return skipped.get();
+    }
+
+    /**
+     * @return the number of recorded searches skipped as they were truncated or failed when
+     *         recorded.
+     */
+    public long getSkippedIncomplete() {
+      return skippedIncomplete.get();
+    }
+
+    public long getResults() {
+      return results.get();
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    /**
+     * @return searches completed or failed per second.
+     */
+    public double getThroughput() {
+      if (elapsedMillis <= 0) {
+        return 0;
+      }
+      return (completed.get() + failed.get()) * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * @return the median search latency, in milliseconds.
+     */
+    public long getP50() {
+      return latencies.getPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile search latency, in milliseconds.
+     */
+    public long getP99() {
+      return latencies.getPercentile(99);
+    }
+
+    public LatencyHistogram getLatencies() {
+      return latencies;
+    }
+
+    @Override
+    public String toString() {
+      return new StringBuilder("Replayed ").append(getCompleted()).append(" searches (")
+          .append(getFailed()).append(" failed, ").append(getSkipped()).append(" skipped, ")
+          .append(getSkippedIncomplete()).append(" skipped as incomplete) in ")
+          .append(elapsedMillis).append(" millis: ")
+          .append(String.format("%.1f", getThroughput())).append(" searches/sec, p50 ")
+          .append(getP50()).append(" millis, p99 ").append(getP99()).append(" millis")
+          .toString();
+    }
+  }
+
+}
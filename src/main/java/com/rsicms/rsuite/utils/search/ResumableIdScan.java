@@ -0,0 +1,336 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.reallysi.rsuite.api.User;
+import com.reallysi.rsuite.service.SearchService;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+/**
+ * Checkpointed, resumable scan of the IDs of the objects matching an XPath expression, for result
+ * sets too large to collect in one go.
+ * <p>
+ * The ID space is walked in ascending windows, using the numeric RSuite ID as a stable sort key.
+ * Each window is searched separately, its IDs are sorted, and they are handed to a
+ * {@link BatchHandler} in batches. After each batch, the last ID handled is saved to a checkpoint
+ * file. A later run with the same checkpoint file resumes after that ID.
+ * <p>
+ * Windows are contiguous, so no ID is skipped. To cross gaps in the ID space quickly, each empty
+ * window is twice as wide as the one before, until a window has IDs again. Should a widened window
+ * hold more than the window size of IDs, its search is stopped and the window is searched again at
+ * half the width, so no more IDs than the window size are held at once. A scan without an upper
+ * bound ends once a search finds no qualifying IDs beyond the last window.
+ * <p>
+ * A scan may be restricted to a range of IDs. Use {@link #partition(long, long, int)} to divide an
+ * ID range into disjoint ranges that separate workers may scan in parallel, each with its own
+ * checkpoint file.
+ * <p>
+ * Requires numeric IDs, which is what RSuite assigns. Window searches are declared heavy to the
+ * search governor.
+ */
+public class ResumableIdScan {
+
+  /**
+   * Class log
+   */
+  private final static Log log = LogFactory.getLog(ResumableIdScan.class);
+
+  private final static String PROP_QUERY = "query";
+  private final static String PROP_RANGE_START = "range.start";
+  private final static String PROP_RANGE_END = "range.end";
+  private final static String PROP_LAST_ID = "last.id";
+  private final static String PROP_COMPLETE = "complete";
+
+  /**
+   * Receives the IDs of qualifying objects, in ascending order.
+   */
+  public interface BatchHandler {
+
+    /**
+     * Handle a batch of IDs. The checkpoint is saved once this returns.
+     * 
+     * @param ids
+     * @throws RSuiteException Thrown to abort the scan. The batch will be handed over again when
+     *         the scan resumes.
+     */
+    void handleBatch(List<String> ids) throws RSuiteException;
+  }
+
+  /**
+   * A range of IDs.
+   */
+  public static class Range {
+
+    private final long start;
+    private final long end;
+
+    /**
+     * @param start Inclusive.
+     * @param end Exclusive.
+     */
+    public Range(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+
+    @Override
+    public String toString() {
+      return new StringBuilder("[").append(start).append(", ").append(end).append(")").toString();
+    }
+  }
+
+  private final String query;
+  private final File checkpointFile;
+  private final int batchSize;
+  private final long windowSize;
+  private final long rangeStart;
+  private final long rangeEnd;
+
+  /**
+   * Construct a scan of all IDs.
+   * 
+   * @param query XPath expression selecting the objects to scan.
+   * @param checkpointFile File to save progress to and resume from.
+   * @param batchSize Maximum number of IDs to hand to the batch handler at once.
+   * @param windowSize Width of the ID windows searched one at a time. Bounds the number of IDs held
+   *        in memory.
+   */
+  public ResumableIdScan(String query, File checkpointFile, int batchSize, long windowSize) {
+    this(query, checkpointFile, batchSize, windowSize, new Range(0, 0));
+  }
+
+  /**
+   * Construct a scan of the IDs within the given range.
+   * 
+   * @param query XPath expression selecting the objects to scan.
+   * @param checkpointFile File to save progress to and resume from.
+   * @param batchSize Maximum number of IDs to hand to the batch handler at once.
+   * @param windowSize Width of the ID windows searched one at a time. Bounds the number of IDs held
+   *        in memory.
+   * @param range IDs to scan. An end of 0 or less means no upper bound.
+   */
+  public ResumableIdScan(String query, File checkpointFile, int batchSize, long windowSize,
+      Range range) {
+    if (batchSize <= 0 || windowSize <= 0) {
+      throw new IllegalArgumentException("Batch and window sizes must be positive.");
+    }
+    this.query = query;
+    this.checkpointFile = checkpointFile;
+    this.batchSize = batchSize;
+    this.windowSize = windowSize;
+    this.rangeStart = range.getStart();
+    this.rangeEnd = range.getEnd();
+  }
+
+  /**
+   * Divide an ID range into the given number of disjoint, contiguous ranges of about equal width.
+   * 
+   * @param start Inclusive.
+   * @param end Exclusive.
+   * @param parts
+   * @return the ranges, in ascending order.
+   */
+  public static List<Range> partition(long start, long end, int parts) {
+    if (parts <= 0 || end <= start) {
+      throw new IllegalArgumentException("Need a positive number of parts and a non-empty range.");
+    }
+    List<Range> ranges = new ArrayList<Range>(parts);
+    long width = (end - start + parts - 1) / parts;
+    for (long partStart = start; partStart < end; partStart += width) {
+      ranges.add(new Range(partStart, Math.min(end, partStart + width)));
+    }
+    return ranges;
+  }
+
+  /**
+   * Run the scan, resuming from the checkpoint file if it exists.
+   * 
+   * @param user
+   * @param searchService
+   * @param handler
+   * @return the number of IDs handed to the handler by this run.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with a search, an ID is not
+   *         numeric, or by the handler.
+   * @throws IOException Thrown if the checkpoint file cannot be read or written, or is for a
+   *         different scan.
+   */
+  public long run(User user, SearchService searchService, BatchHandler handler)
+      throws RSuiteException, IOException {
+    Properties checkpoint = loadCheckpoint();
+    if (Boolean.parseBoolean(checkpoint.getProperty(PROP_COMPLETE))) {
+      log.info("Scan already complete per " + checkpointFile.getAbsolutePath());
+      return 0;
+    }
+    long lastId = Long.parseLong(checkpoint.getProperty(PROP_LAST_ID));
+    if (lastId >= rangeStart) {
+      log.info("Resuming scan after ID " + lastId + " per " + checkpointFile.getAbsolutePath());
+    }
+
+    long handledCount = 0;
+    long width = windowSize;
+    while (rangeEnd <= 0 || lastId < rangeEnd - 1) {
+      long windowEnd = lastId > Long.MAX_VALUE - width ? Long.MAX_VALUE : lastId + width;
+      if (rangeEnd > 0) {
+        windowEnd = Math.min(windowEnd, rangeEnd - 1);
+      }
+
+      List<Long> ids = getIds(user, searchService, lastId, windowEnd);
+      if (ids == null) {
+        // Too dense for a widened window; narrow it and search again.
+        width = Math.max(windowSize, width / 2);
+        continue;
+      } else if (!ids.isEmpty()) {
+        width = windowSize;
+      } else if (rangeEnd <= 0 && !hasIdsAfter(user, searchService, windowEnd)) {
+        lastId = windowEnd;
+        break;
+      } else {
+        // Widen the next window to cross the gap.
+        width = width > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : width * 2;
+      }
+
+      for (int from = 0; from < ids.size(); from += batchSize) {
+        List<Long> batch = ids.subList(from, Math.min(ids.size(), from + batchSize));
+        List<String> batchIds = new ArrayList<String>(batch.size());
+        for (Long id : batch) {
+          batchIds.add(id.toString());
+        }
+        handler.handleBatch(batchIds);
+        handledCount += batchIds.size();
+        lastId = batch.get(batch.size() - 1);
+        saveCheckpoint(lastId, false);
+      }
+
+      lastId = windowEnd;
+      saveCheckpoint(lastId, false);
+    }
+
+    saveCheckpoint(lastId, true);
+    log.info(new StringBuilder("Scan of range ").append(new Range(rangeStart, rangeEnd))
+        .append(" complete; handled ").append(handledCount).append(" IDs in this run.")
+        .toString());
+    return handledCount;
+  }
+
+  /**
+   * Get the sorted IDs of qualifying objects within a window.
+   * 
+   * @return the IDs, or null if the window holds more than the window size of IDs, which is only
+   *         possible in a widened window.
+   */
+  private List<Long> getIds(User user, SearchService searchService, long afterId, long throughId)
+      throws RSuiteException {
+    final List<Long> ids = new ArrayList<Long>();
+    SearchUtils.scanObjects(user, searchService,
+        query.concat(SearchUtils.getIdRangeXPathPredicate(afterId, throughId)), QueryClass.Heavy,
+        null, new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+            ids.add(parseId(mo.getId()));
+            return ids.size() <= windowSize;
+          }
+        });
+    if (ids.size() > windowSize) {
+      return null;
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Find out if there are any qualifying objects after the given ID. The first result RXS lists is
+   * not necessarily the next ID, so only its existence is meaningful.
+   */
+  private boolean hasIdsAfter(User user, SearchService searchService, long afterId)
+      throws RSuiteException {
+    int count = SearchUtils.scanObjects(user, searchService,
+        query.concat(SearchUtils.getIdRangeXPathPredicate(afterId, Long.MAX_VALUE)),
+        QueryClass.Heavy, null, new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) {
+            return false;
+          }
+        });
+    return count > 0;
+  }
+
+  private static Long parseId(String id) throws RSuiteException {
+    try {
+      return Long.valueOf(id);
+    } catch (NumberFormatException e) {
+      throw new RSuiteException("Resumable scans require numeric IDs; encountered '" + id + "'.");
+    }
+  }
+
+  private Properties loadCheckpoint() throws IOException {
+    Properties checkpoint = new Properties();
+    if (checkpointFile.exists()) {
+      InputStream in = new FileInputStream(checkpointFile);
+      try {
+        checkpoint.load(in);
+      } finally {
+        in.close();
+      }
+      if (!query.equals(checkpoint.getProperty(PROP_QUERY))
+          || !String.valueOf(rangeStart).equals(checkpoint.getProperty(PROP_RANGE_START))
+          || !String.valueOf(rangeEnd).equals(checkpoint.getProperty(PROP_RANGE_END))) {
+        throw new IOException("Checkpoint file " + checkpointFile.getAbsolutePath()
+            + " is for a different query or ID range.");
+      }
+    } else {
+      checkpoint.setProperty(PROP_LAST_ID, String.valueOf(rangeStart - 1));
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Write the checkpoint to a temporary file, then replace the checkpoint file with it, so that a
+   * failure while writing does not lose the previous checkpoint.
+   */
+  private void saveCheckpoint(long lastId, boolean complete) throws IOException {
+    Properties checkpoint = new Properties();
+    checkpoint.setProperty(PROP_QUERY, query);
+    checkpoint.setProperty(PROP_RANGE_START, String.valueOf(rangeStart));
+    checkpoint.setProperty(PROP_RANGE_END, String.valueOf(rangeEnd));
+    checkpoint.setProperty(PROP_LAST_ID, String.valueOf(lastId));
+    checkpoint.setProperty(PROP_COMPLETE, String.valueOf(complete));
+
+    File tempFile = new File(checkpointFile.getAbsolutePath().concat(".tmp"));
+    FileOutputStream out = new FileOutputStream(tempFile);
+    try {
+      checkpoint.store(out, "Resumable ID scan checkpoint");
+      out.flush();
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (!tempFile.renameTo(checkpointFile)) {
+      // Some platforms will not rename over an existing file.
+      if (!checkpointFile.delete() || !tempFile.renameTo(checkpointFile)) {
+        throw new IOException("Unable to save checkpoint to " + checkpointFile.getAbsolutePath());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.rsicms.rsuite.utils.search;
+
+/**
+ * Allows a search to be cancelled, or bounded by a deadline, while its results are being
+ * collected.
+ * <p>
+ * The token is checked before waiting for a search permit and between results, so a cancelled or
+ * expired search stops before RSuite goes back to MarkLogic for another bucket of results. By
+ * default, a stopped search throws an exception. When partial results are allowed, the results
+ * collected so far are returned instead, and {@link #isTruncated()} reports true.
+ * <p>
+ * Use one token per request. {@link #cancel()} may be called from any thread.
+ */
+public class SearchCancellationToken {
+
+  private final long deadline;
+  private final boolean allowPartialResults;
+  private volatile boolean cancelled;
+  private volatile boolean truncated;
+
+  /**
+   * Construct a token without a deadline, which only stops a search when cancelled.
+   * 
+   * @param allowPartialResults Submit true to have a stopped search return the results collected
+   *        so far; false to have it throw an exception.
+   */
+  public SearchCancellationToken(boolean allowPartialResults) {
+    this(0, allowPartialResults);
+  }
+
+  /**
+   * Construct a token with a deadline.
+   * 
+   * @param deadline Time, in milliseconds since the epoch, at which to stop the search. Send in 0
+   *        for no deadline.
+   * @param allowPartialResults Submit true to have a stopped search return the results collected
+   *        so far; false to have it throw an exception.
+   */
+  public SearchCancellationToken(long deadline, boolean allowPartialResults) {
+    this.deadline = deadline;
+    this.allowPartialResults = allowPartialResults;
+  }
+
+  /**
+   * Construct a token whose deadline is the given number of milliseconds from now.
+   * 
+   * @param timeoutMillis
+   * @param allowPartialResults
+   * @return a new token.
+   */
+  public static SearchCancellationToken withTimeout(long timeoutMillis,
+      boolean allowPartialResults) {
+    return new SearchCancellationToken(System.currentTimeMillis() + timeoutMillis,
+        allowPartialResults);
+  }
+
+  /**
+   * Request that searches using this token stop.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return true if the deadline has passed.
+   */
+  public boolean isExpired() {
+    return deadline > 0 && System.currentTimeMillis() >= deadline;
+  }
+
+  /**
+   * @return true if searches using this token should stop.
+   */
+  public boolean isStopRequested() {
+    return cancelled || isExpired();
+  }
+
+  /**
+   * @return milliseconds until the deadline; Long.MAX_VALUE if there is none.
+   */
+  public long getRemainingMillis() {
+    if (deadline <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, deadline - System.currentTimeMillis());
+  }
+
+  public boolean isPartialResultsAllowed() {
+    return allowPartialResults;
+  }
+
+  /**
+   * @return true if a search using this token stopped early and returned partial results.
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * Called by a search that stopped early and is returning partial results.
+   */
+  void setTruncated() {
+    truncated = true;
+  }
+
+  /**
+   * @return a description of why searches using this token should stop.
+   */
+  String getStopReason() {
+    return cancelled ? "Search cancelled." : "Search deadline exceeded.";
+  }
+
+}
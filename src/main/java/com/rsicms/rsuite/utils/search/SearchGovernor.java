@@ -0,0 +1,175 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.util.regex.Pattern;
+
+import com.reallysi.rsuite.api.RSuiteException;
+
+/**
+ * Bulkhead around SearchService calls, with a separate adaptive concurrency limit per query class.
+ * Keeps cheap, indexed lookups responsive while heavy searches are throttled and shed.
+ * <p>
+ * Install with {@link SearchUtils#setSearchGovernor(SearchGovernor)}. A permit is held for the
+ * duration of the search, including result collection. The latency reported to the limit is the
+ * time to the first result, as that is what reflects the database's load; the time to collect all
+ * results grows with their number and with the caller's processing.
+ * <p>
+ * Queries are classified by {@link #classify(String)}, unless the caller declares the class. Bulk
+ * scans, which hold their permit for a long time, should declare themselves
+ * {@link QueryClass#Heavy}, by way of
+ * {@link SearchUtils#scanObjects(com.reallysi.rsuite.api.User, com.reallysi.rsuite.service.SearchService, String, QueryClass, SearchCancellationToken, SearchResultHandler)}.
+ */
+public class SearchGovernor {
+
+  /**
+   * Classes of queries, each with its own concurrency limit.
+   */
+  public enum QueryClass {
+    /**
+     * Queries that may only be resolved from indexes, such as top-level MO lookups by ID, alias or
+     * LMD value.
+     */
+    Cheap,
+
+    /**
+     * Queries using the descendant axis or word queries, and bulk scans.
+     */
+    Heavy;
+  }
+
+  /**
+   * An XPath string literal, in which the delimiter is escaped by doubling it.
+   */
+  private final static Pattern STRING_LITERAL =
+      Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
+
+  private final AdaptiveConcurrencyLimit cheapLimit;
+  private final AdaptiveConcurrencyLimit heavyLimit;
+
+  /**
+   * Construct a governor with the given limits.
+   * 
+   * @param cheapLimit Limit for {@link QueryClass#Cheap} queries.
+   * @param heavyLimit Limit for {@link QueryClass#Heavy} queries.
+   */
+  public SearchGovernor(AdaptiveConcurrencyLimit cheapLimit, AdaptiveConcurrencyLimit heavyLimit) {
+    this.cheapLimit = cheapLimit;
+    this.heavyLimit = heavyLimit;
+  }
+
+  /**
+   * Classify an XPath query.
+   * <p>
+   * A query is heavy if it uses the descendant axis or a cts function. String literals are
+   * disregarded, so namespace URIs, collection URIs and search values do not count.
+   * 
+   * @param query
+   * @return the query's class.
+   */
+  public static QueryClass classify(String query) {
+    String expression = STRING_LITERAL.matcher(query).replaceAll("''");
+    if (expression.contains("//") || expression.contains("cts:")) {
+      return QueryClass.Heavy;
+    }
+    return QueryClass.Cheap;
+  }
+
+  /**
+   * Get the limit for a query class.
+   * 
+   * @param queryClass
+   * @return the limit for the query class.
+   */
+  public AdaptiveConcurrencyLimit getLimit(QueryClass queryClass) {
+    return queryClass == QueryClass.Heavy ? heavyLimit : cheapLimit;
+  }
+
+  /**
+   * Acquire a permit for the given query, waiting up to the class's queue timeout.
+   * 
+   * @param query
+   * @return the permit, which must be released.
+   * @throws RSuiteException Thrown if the search is shed.
+   */
+  public Permit acquire(String query) throws RSuiteException {
+    return acquire(classify(query));
+  }
+
+  /**
+   * Acquire a permit for a query of the given class, waiting up to the class's queue timeout.
+   * 
+   * @param queryClass
+   * @return the permit, which must be released.
+   * @throws RSuiteException Thrown if the search is shed.
+   */
+  public Permit acquire(QueryClass queryClass) throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = getLimit(queryClass);
+    limit.acquire();
+    return new Permit(limit);
+  }
+
+  /**
+   * Acquire a permit for the given query, waiting up to the lesser of the given time and the
+   * class's queue timeout.
+   * 
+   * @param query
+   * @param maxWaitMillis
+   * @return the permit, which must be released.
+   * @throws RSuiteException Thrown if the search is shed.
+   */
+  public Permit acquire(String query, long maxWaitMillis) throws RSuiteException {
+    return acquire(classify(query), maxWaitMillis);
+  }
+
+  /**
+   * Acquire a permit for a query of the given class, waiting up to the lesser of the given time and
+   * the class's queue timeout.
+   * 
+   * @param queryClass
+   * @param maxWaitMillis
+   * @return the permit, which must be released.
+   * @throws RSuiteException Thrown if the search is shed.
+   */
+  public Permit acquire(QueryClass queryClass, long maxWaitMillis) throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = getLimit(queryClass);
+    limit.acquire(maxWaitMillis);
+    return new Permit(limit);
+  }
+
+  /**
+   * A permit to run one search.
+   */
+  public static class Permit {
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final long start = System.currentTimeMillis();
+    private long latencyMillis = -1;
+    private boolean released;
+
+    private Permit(AdaptiveConcurrencyLimit limit) {
+      this.limit = limit;
+    }
+
+    /**
+     * Note that the first result was received, fixing the latency to report. Subsequent calls are
+     * ignored.
+     */
+    public void firstResultReceived() {
+      if (latencyMillis < 0) {
+        latencyMillis = System.currentTimeMillis() - start;
+      }
+    }
+
+    /**
+     * Release the permit, reporting the time to the first result or, if there was none, the
+     * elapsed time since the permit was acquired. Subsequent calls are ignored.
+     */
+    public void release() {
+      if (!released) {
+        released = true;
+        firstResultReceived();
+        limit.release(latencyMillis);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,483 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.MetaDataItem;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.reallysi.rsuite.api.User;
+import com.reallysi.rsuite.service.SearchService;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+import com.rsicms.rsuite.utils.search.SearchUtils.SystemMetadata;
+
+/**
+ * Streams search results to a file as NDJSON or CSV, one record per result, with heap use that
+ * does not grow with the number of results.
+ * <p>
+ * The calling thread runs the search and formats each result as it arrives. Formatted records pass
+ * through a bounded queue to a writer thread, which buffers them into a file channel, optionally
+ * through gzip. When the writer falls behind, the search waits. The search is declared heavy to the
+ * search governor, as it holds its permit until the export completes.
+ * <p>
+ * Each record holds the ID, the selected system metadata, and the selected LMD. Repeating LMD
+ * values are written as a JSON array, or joined by {@link #CSV_VALUE_SEPARATOR} in CSV.
+ */
+public class SearchResultExporter {
+
+  /**
+   * Class log
+   */
+  private final static Log log = LogFactory.getLog(SearchResultExporter.class);
+
+  /**
+   * Separates repeating LMD values within a CSV field.
+   */
+  public final static String CSV_VALUE_SEPARATOR = "|";
+
+  private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final static int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Marks the end of the records. Compared by identity.
+   */
+  private final static String END_OF_RECORDS = new String("");
+
+  /**
+   * Supported output formats.
+   */
+  public enum Format {
+    NDJSON, CSV;
+  }
+
+  private final Format format;
+  private final List<SystemMetadata> systemMetadata;
+  private final List<String> lmdNames;
+  private final boolean gzip;
+  private final int queueCapacity;
+
+  /**
+   * Construct an exporter.
+   * 
+   * @param format
+   * @param systemMetadata System metadata to include after the ID. Supported: DisplayName,
+   *        DateCreated and DateModified. May be empty.
+   * @param lmdNames Names of the LMD to include. May be empty.
+   * @param gzip Submit true to gzip the output.
+   * @param queueCapacity Maximum number of records formatted but not yet written.
+   */
+  public SearchResultExporter(Format format, List<SystemMetadata> systemMetadata,
+      List<String> lmdNames, boolean gzip, int queueCapacity) {
+    for (SystemMetadata smd : systemMetadata) {
+      if (smd != SystemMetadata.DisplayName && smd != SystemMetadata.DateCreated
+          && smd != SystemMetadata.DateModified) {
+        throw new IllegalArgumentException("Exporting " + smd + " is not supported.");
+      }
+    }
+    this.format = format;
+    this.systemMetadata = new ArrayList<SystemMetadata>(systemMetadata);
+    this.lmdNames = new ArrayList<String>(lmdNames);
+    this.gzip = gzip;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Export the results of an XPath search to a file, replacing the file if it exists.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param file
+   * @return the number of records written, excluding the CSV header.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search, or the file
+   *         cannot be written.
+   */
+  public long export(User user, SearchService searchService, String query, File file)
+      throws RSuiteException {
+    return export(user, searchService, query, file, null);
+  }
+
+  /**
+   * Export the results of an XPath search to a file, replacing the file if it exists.
+   * <p>
+   * The records are written to a temporary file next to the destination, named after it with a
+   * ".tmp" suffix, which replaces the destination only once the export succeeds. Should the search
+   * or the writer fail, or the search be stopped by a token that does not allow partial results,
+   * the temporary file is deleted and any existing destination file is left as it was.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param file
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null. If the token allows partial results, the records collected before the
+   *        search stopped are kept;
+   *        {@link SearchCancellationToken#isTruncated()} tells whether the file is complete.
+   * @return the number of records written, excluding the CSV header.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search, or the file
+   *         cannot be written.
+   */
+  public long export(User user, SearchService searchService, String query, File file,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
+    File tempFile = new File(file.getAbsolutePath().concat(".tmp"));
+    final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(queueCapacity);
+    final RecordWriter writer;
+    try {
+      writer = new RecordWriter(tempFile, queue);
+    } catch (IOException e) {
+      throw new RSuiteException(0, "Unable to open " + tempFile.getAbsolutePath(), e);
+    }
+    Thread writerThread = new Thread(writer, "search-result-export-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+
+    Date start = new Date();
+    int count = 0;
+    boolean replaced = false;
+    try {
+      try {
+        if (format == Format.CSV) {
+          enqueue(queue, writer, getCsvHeader());
+        }
+        count = SearchUtils.scanObjects(user, searchService, query, QueryClass.Heavy,
+            cancellationToken, new SearchResultHandler() {
+              @Override
+              public boolean handleResult(ManagedObject mo, int position)
+                  throws RSuiteException {
+                enqueue(queue, writer,
+                    format == Format.CSV ? getCsvRecord(mo) : getJsonRecord(mo));
+                return true;
+              }
+            });
+      } finally {
+        finishWriter(queue, writer, writerThread);
+      }
+
+      if (writer.failure != null) {
+        throw new RSuiteException(0, "Unable to write " + tempFile.getAbsolutePath(),
+            writer.failure);
+      }
+      if (!tempFile.renameTo(file)) {
+        // Some platforms will not rename over an existing file.
+        if (!file.delete() || !tempFile.renameTo(file)) {
+          throw new RSuiteException("Unable to replace " + file.getAbsolutePath());
+        }
+      }
+      replaced = true;
+    } finally {
+      if (!replaced && tempFile.exists() && !tempFile.delete()) {
+        log.warn("Unable to delete " + tempFile.getAbsolutePath());
+      }
+    }
+    log.info(new StringBuilder("Exported ").append(count).append(" search results to ")
+        .append(file.getAbsolutePath()).append(" in ")
+        .append(new Date().getTime() - start.getTime()).append(" millis").toString());
+    return count;
+  }
+
+  /**
+   * Let the writer finish and wait for it, so the file is closed. Should the end of the records not
+   * be enqueued, such as when this thread is interrupted, the writer is interrupted instead. This
+   * thread's interrupt status is preserved.
+   */
+  private static void finishWriter(BlockingQueue<String> queue, RecordWriter writer,
+      Thread writerThread) {
+    try {
+      enqueue(queue, writer, END_OF_RECORDS);
+    } catch (RSuiteException e) {
+      // Reported below if the writer failed; otherwise the caller's exception stands.
+      writerThread.interrupt();
+    }
+    boolean interrupted = Thread.interrupted();
+    while (writerThread.isAlive()) {
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wait for room in the queue, giving up if the writer failed.
+   */
+  private static void enqueue(BlockingQueue<String> queue, RecordWriter writer, String record)
+      throws RSuiteException {
+    if (writer.failure != null) {
+      throw new RSuiteException(0, "Export writer stopped.", writer.failure);
+    }
+    try {
+      while (!queue.offer(record, 1, TimeUnit.SECONDS)) {
+        if (writer.failure != null || writer.finished) {
+          throw new RSuiteException(0, "Export writer stopped.", writer.failure);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RSuiteException("Interrupted while exporting search results.");
+    }
+  }
+
+  private String getCsvHeader() {
+    List<String> fields = new ArrayList<String>();
+    fields.add(SystemMetadata.Id.getLocalname());
+    for (SystemMetadata smd : systemMetadata) {
+      fields.add(smd.getLocalname());
+    }
+    fields.addAll(lmdNames);
+    StringBuilder buf = new StringBuilder();
+    for (String field : fields) {
+      appendCsvField(buf, field);
+    }
+    return buf.toString();
+  }
+
+  private String getCsvRecord(ManagedObject mo) throws RSuiteException {
+    StringBuilder buf = new StringBuilder();
+    appendCsvField(buf, mo.getId());
+    for (SystemMetadata smd : systemMetadata) {
+      appendCsvField(buf, getSystemMetadataValue(mo, smd));
+    }
+    Map<String, List<String>> lmd = getLmdValues(mo);
+    for (String name : lmdNames) {
+      StringBuilder values = new StringBuilder();
+      for (String value : lmd.get(name)) {
+        if (values.length() > 0)
+          values.append(CSV_VALUE_SEPARATOR);
+        values.append(value);
+      }
+      appendCsvField(buf, values.toString());
+    }
+    return buf.toString();
+  }
+
+  private String getJsonRecord(ManagedObject mo) throws RSuiteException {
+    StringBuilder buf = new StringBuilder("{");
+    appendJsonString(buf, SystemMetadata.Id.getLocalname()).append(':');
+    appendJsonString(buf, mo.getId());
+    for (SystemMetadata smd : systemMetadata) {
+      buf.append(',');
+      appendJsonString(buf, smd.getLocalname()).append(':');
+      appendJsonString(buf, getSystemMetadataValue(mo, smd));
+    }
+    if (!lmdNames.isEmpty()) {
+      buf.append(",\"lmd\":{");
+      boolean firstName = true;
+      for (Map.Entry<String, List<String>> entry : getLmdValues(mo).entrySet()) {
+        if (firstName)
+          firstName = false;
+        else
+          buf.append(',');
+        appendJsonString(buf, entry.getKey()).append(":[");
+        boolean firstValue = true;
+        for (String value : entry.getValue()) {
+          if (firstValue)
+            firstValue = false;
+          else
+            buf.append(',');
+          appendJsonString(buf, value);
+        }
+        buf.append(']');
+      }
+      buf.append('}');
+    }
+    return buf.append('}').toString();
+  }
+
+  private static String getSystemMetadataValue(ManagedObject mo, SystemMetadata smd)
+      throws RSuiteException {
+    switch (smd) {
+      case DisplayName:
+        return mo.getDisplayName();
+      case DateCreated:
+        return formatDate(mo.getDtCreated());
+      case DateModified:
+        return formatDate(mo.getDtModified());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Get the values of the selected LMD, in the order the names were given.
+   */
+  private Map<String, List<String>> getLmdValues(ManagedObject mo) throws RSuiteException {
+    Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+    for (String name : lmdNames) {
+      values.put(name, new ArrayList<String>(1));
+    }
+    if (!lmdNames.isEmpty()) {
+      List<MetaDataItem> items = mo.getMetaDataItems();
+      if (items != null) {
+        for (MetaDataItem item : items) {
+          List<String> nameValues = values.get(item.getName());
+          if (nameValues != null && item.getValue() != null) {
+            nameValues.add(item.getValue());
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  private static String formatDate(Date date) {
+    if (date == null) {
+      return null;
+    }
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(date);
+  }
+
+  /**
+   * Append a field, quoted only when necessary.
+   */
+  private static void appendCsvField(StringBuilder buf, String value) {
+    if (buf.length() > 0)
+      buf.append(',');
+    if (value == null)
+      return;
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+        && value.indexOf('\r') < 0) {
+      buf.append(value);
+    } else {
+      buf.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+  }
+
+  private static StringBuilder appendJsonString(StringBuilder buf, String value) {
+    if (value == null)
+      return buf.append("null");
+    buf.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          buf.append("\\\"");
+          break;
+        case '\\':
+          buf.append("\\\\");
+          break;
+        case '\n':
+          buf.append("\\n");
+          break;
+        case '\r':
+          buf.append("\\r");
+          break;
+        case '\t':
+          buf.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            buf.append(String.format("\\u%04x", (int) c));
+          } else {
+            buf.append(c);
+          }
+      }
+    }
+    return buf.append('"');
+  }
+
+  /**
+   * Drains the queue into the file, one line per record.
+   */
+  private class RecordWriter implements Runnable {
+
+    private final BlockingQueue<String> queue;
+    private final FileOutputStream fileOut;
+    private final WritableByteChannel out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private volatile IOException failure;
+    private volatile boolean finished;
+
+    private RecordWriter(File file, BlockingQueue<String> queue) throws IOException {
+      this.queue = queue;
+      this.fileOut = new FileOutputStream(file);
+      FileChannel channel = fileOut.getChannel();
+      if (gzip) {
+        this.out = Channels
+            .newChannel(new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+      } else {
+        this.out = channel;
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        String record;
+        while ((record = queue.take()) != END_OF_RECORDS) {
+          byte[] bytes = record.concat("\n").getBytes(UTF_8);
+          if (bytes.length > buffer.remaining()) {
+            flush();
+          }
+          if (bytes.length > buffer.capacity()) {
+            write(ByteBuffer.wrap(bytes));
+          } else {
+            buffer.put(bytes);
+          }
+        }
+        flush();
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        failure = new IOException("Interrupted while writing search results.");
+      } finally {
+        finished = true;
+        try {
+          // Also finishes the gzip stream, when there is one.
+          out.close();
+        } catch (IOException e) {
+          if (failure == null)
+            failure = e;
+        }
+        try {
+          fileOut.close();
+        } catch (IOException e) {
+          if (failure == null)
+            failure = e;
+        }
+        // Unblock the search, should it be waiting for room.
+        queue.clear();
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      write(buffer);
+      buffer.clear();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.rsicms.rsuite.utils.search;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+
+/**
+ * Receives search results one at a time, as RSuite provides them. Allows large result sets to be
+ * processed without holding all of them in memory.
+ * 
+ * @see SearchUtils#scanObjects(com.reallysi.rsuite.api.User, com.reallysi.rsuite.service.SearchService,
+ *      String, SearchResultHandler)
+ */
+public interface SearchResultHandler {
+
+  /**
+   * Handle one search result.
+   * 
+   * @param mo The qualifying object, which may be a container.
+   * @param position One-based position of the result within the search results.
+   * @return true to continue with the next result; false to stop collecting results.
+   * @throws RSuiteException Thrown to abort the search.
+   */
+  boolean handleResult(ManagedObject mo, int position) throws RSuiteException;
+
+}
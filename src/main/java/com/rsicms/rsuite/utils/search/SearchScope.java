@@ -0,0 +1,178 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Restricts a search to the contents of one or more containers, such as a CA and its descendants.
+ * <p>
+ * The restriction is applied as the source of the XPath expression, e.g.,
+ * <code>collection(('uri1', 'uri2'))/rs_ca_map/rs_ca</code>, so MarkLogic narrows the candidate
+ * documents from its collection or directory index before evaluating any predicates.
+ * <p>
+ * RSuite does not publish a mapping from containers to collection or directory URIs, so this
+ * class does not derive them. The caller provides a URI pattern matching the convention its
+ * deployment maintains, where each {@link #CONTAINER_ID} is replaced by a container ID. The
+ * convention assumed is:
+ * <ul>
+ * <li>Container IDs are RSuite IDs, i.e., digits only.</li>
+ * <li>With {@link Kind#Collection}, every document to be found is added to the collection of the
+ * container. Documents of descendant CAs are only in scope if they are added to the collections of
+ * their ancestors as well.</li>
+ * <li>With {@link Kind#Directory}, every document to be found is stored under the directory of the
+ * container. Documents of descendant CAs are in scope when their directories are nested under it,
+ * as subdirectories are searched.</li>
+ * </ul>
+ * Documents outside that convention are silently excluded from scoped searches, so verify it
+ * against the deployment before relying on a scope.
+ */
+public class SearchScope {
+
+  /**
+   * How container contents are grouped in the database.
+   */
+  public enum Kind {
+    /**
+     * Each container's contents are in a collection.
+     */
+    Collection,
+
+    /**
+     * Each container's contents are in a directory. Subdirectories are included.
+     */
+    Directory;
+  }
+
+  /**
+   * Placeholder for the container ID in URI patterns. Substituted literally; no other characters
+   * of the pattern are special.
+   */
+  public final static String CONTAINER_ID = "{0}";
+
+  private final Kind kind;
+  private final List<String> uris;
+
+  /**
+   * Construct a scope.
+   * 
+   * @param kind
+   * @param uriPattern Pattern of the collection or directory URI of a container, where
+   *        {@link #CONTAINER_ID} is the container ID. Directory URIs must end with "/".
+   * @param containerIds One or more container IDs.
+   * @throws IllegalArgumentException Thrown if the pattern lacks the placeholder, a directory
+   *         pattern does not end with "/", or a container ID is not an RSuite ID.
+   */
+  public SearchScope(Kind kind, String uriPattern, String... containerIds) {
+    if (containerIds == null || containerIds.length == 0) {
+      throw new IllegalArgumentException("At least one container ID is required.");
+    }
+    if (uriPattern == null || !uriPattern.contains(CONTAINER_ID)) {
+      throw new IllegalArgumentException(
+          "URI pattern must contain " + CONTAINER_ID + ": " + uriPattern);
+    }
+    if (kind == Kind.Directory && !uriPattern.endsWith("/")) {
+      throw new IllegalArgumentException("Directory URI pattern must end with /: " + uriPattern);
+    }
+    this.kind = kind;
+    this.uris = new ArrayList<String>(containerIds.length);
+    for (String containerId : containerIds) {
+      String id = containerId == null ? "" : containerId.trim();
+      if (!id.matches("[0-9]+")) {
+        throw new IllegalArgumentException("Not an RSuite ID: " + containerId);
+      }
+      uris.add(uriPattern.replace(CONTAINER_ID, id));
+    }
+  }
+
+  /**
+   * Construct a scope of container collections.
+   * 
+   * @param uriPattern Pattern of the collection URI of a container, where {@link #CONTAINER_ID}
+   *        is the container ID.
+   * @param containerIds One or more container IDs.
+   * @return a new scope.
+   */
+  public static SearchScope collections(String uriPattern, String... containerIds) {
+    return new SearchScope(Kind.Collection, uriPattern, containerIds);
+  }
+
+  /**
+   * Construct a scope of container directories.
+   * 
+   * @param uriPattern Pattern of the directory URI of a container, where {@link #CONTAINER_ID}
+   *        is the container ID. Must end with "/".
+   * @param containerIds One or more container IDs.
+   * @return a new scope.
+   */
+  public static SearchScope directories(String uriPattern, String... containerIds) {
+    return new SearchScope(Kind.Directory, uriPattern, containerIds);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public List<String> getUris() {
+    return uris;
+  }
+
+  /**
+   * Get the expression selecting the documents in scope.
+   * 
+   * @return an XQuery expression.
+   */
+  public String getSourceExpression() {
+    StringBuilder buf =
+        new StringBuilder(kind == Kind.Collection ? "collection((" : "xdmp:directory((");
+    boolean first = true;
+    for (String uri : uris) {
+      if (first)
+        first = false;
+      else
+        buf.append(", ");
+      appendStringLiteral(buf, uri);
+    }
+    buf.append(")");
+    if (kind == Kind.Directory)
+      buf.append(", 'infinity'");
+    return buf.append(")").toString();
+  }
+
+  /**
+   * Append an XQuery string literal, escaping the characters XQuery treats specially within one.
+   */
+  private static void appendStringLiteral(StringBuilder buf, String value) {
+    buf.append('\'').append(value.replace("&", "&amp;").replace("'", "''")).append('\'');
+  }
+
+  /**
+   * Restrict an absolute XPath expression to this scope.
+   * 
+   * @param xpathExpression An expression starting with "/" or "//".
+   * @return the restricted expression.
+   */
+  public String apply(String xpathExpression) {
+    if (!xpathExpression.startsWith("/")) {
+      throw new IllegalArgumentException(
+          "Only absolute XPath expressions may be scoped: " + xpathExpression);
+    }
+    return getSourceExpression().concat(xpathExpression);
+  }
+
+  /**
+   * Restrict an absolute XPath expression to the given scope, if any.
+   * 
+   * @param scope Optional. When null, the expression is returned as is.
+   * @param xpathExpression
+   * @return the restricted expression.
+   */
+  public static String apply(SearchScope scope, String xpathExpression) {
+    return scope == null ? xpathExpression : scope.apply(xpathExpression);
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(kind.toString()).append(" ").append(uris).toString();
+  }
+
+}
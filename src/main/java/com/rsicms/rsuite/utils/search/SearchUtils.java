@@ -1,8 +1,11 @@
 package com.rsicms.rsuite.utils.search;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.namespace.QName;
 
@@ -94,11 +97,31 @@ public class SearchUtils {
     }
   }
 
+  /**
+   * Optional governor of concurrent searches, shared by all searches made through this class.
+   */
+  private static volatile SearchGovernor searchGovernor;
+
+  /**
+   * Optional recorder of all searches made through this class.
+   */
+  private static volatile QueryWorkloadRecorder queryWorkloadRecorder;
+
   /**
    * The search service instance this class's instance methods are to use.
    */
   private SearchService searchService;
 
+  /**
+   * Optional alias existence cache this class's instance methods are to use.
+   */
+  private AliasExistenceCache aliasExistenceCache;
+
+  /**
+   * Optional warm search index this class's instance methods are to use.
+   */
+  private WarmSearchIndex warmSearchIndex;
+
   /**
    * Private no-arg constructor
    */
@@ -114,6 +137,61 @@ public class SearchUtils {
     this.searchService = searchService;
   }
 
+  /**
+   * Construct an instance whose alias searches consult the given alias existence cache.
+   * 
+   * @param searchService
+   * @param aliasExistenceCache
+   */
+  public SearchUtils(SearchService searchService, AliasExistenceCache aliasExistenceCache) {
+    this(searchService);
+    this.aliasExistenceCache = aliasExistenceCache;
+  }
+
+  public AliasExistenceCache getAliasExistenceCache() {
+    return aliasExistenceCache;
+  }
+
+  public void setAliasExistenceCache(AliasExistenceCache aliasExistenceCache) {
+    this.aliasExistenceCache = aliasExistenceCache;
+  }
+
+  public WarmSearchIndex getWarmSearchIndex() {
+    return warmSearchIndex;
+  }
+
+  public void setWarmSearchIndex(WarmSearchIndex warmSearchIndex) {
+    this.warmSearchIndex = warmSearchIndex;
+  }
+
+  public static SearchGovernor getSearchGovernor() {
+    return searchGovernor;
+  }
+
+  /**
+   * Install a governor to limit concurrent searches made through this class, or send in null to
+   * remove it.
+   * 
+   * @param searchGovernor
+   */
+  public static void setSearchGovernor(SearchGovernor searchGovernor) {
+    SearchUtils.searchGovernor = searchGovernor;
+  }
+
+  public static QueryWorkloadRecorder getQueryWorkloadRecorder() {
+    return queryWorkloadRecorder;
+  }
+
+  /**
+   * Install a recorder of all searches made through this class, or send in null to stop
+   * recording. The caller remains responsible for closing the recorder.
+   * 
+   * @param queryWorkloadRecorder
+   */
+  public static void setQueryWorkloadRecorder(QueryWorkloadRecorder queryWorkloadRecorder) {
+    SearchUtils.queryWorkloadRecorder = queryWorkloadRecorder;
+  }
+
   /**
    * Get a predicate for a single piece of system metadata, testing equality
    * 
@@ -141,6 +219,44 @@ public class SearchUtils {
         systemMetadata.getLocalname(), op, new String[] {value})).append("]").toString();
   }
 
+  /**
+   * Get a predicate selecting objects last modified at or after the given time.
+   * <p>
+   * Unlike {@link #getSystemMetadataXPathPredicate(SystemMetadata, String, String)}, the value is
+   * an xs:dateTime, which avoids string comparisons across time zone offsets. A general comparison
+   * is used, which casts the untyped metadata value to xs:dateTime. Unlike a value comparison over
+   * an explicit cast of the path, it can be resolved from a dateTime range index.
+   * 
+   * @param since
+   * @return A system metadata XPath predicate
+   */
+  public static String getModifiedSinceXPathPredicate(Date since) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return new StringBuilder("[").append(MV_SMD_LEAD_OFF_EXPRESSION)
+        .append(SystemMetadata.DateModified.getLocalname()).append(" >= xs:dateTime('")
+        .append(format.format(since)).append("')]").toString();
+  }
+
+  /**
+   * Get a predicate selecting objects whose numeric ID is within the given range.
+   * <p>
+   * The ID is compared as a number, rather than as a string. General comparisons are used, which
+   * cast the untyped ID to a number. Unlike a value comparison over an explicit cast of the path,
+   * they can be resolved from a range index.
+   * 
+   * @param afterId Exclusive lower bound.
+   * @param throughId Inclusive upper bound.
+   * @return A system metadata XPath predicate
+   */
+  public static String getIdRangeXPathPredicate(long afterId, long throughId) {
+    String idExpression = new StringBuilder(MV_SMD_LEAD_OFF_EXPRESSION)
+        .append(SystemMetadata.Id.getLocalname()).toString();
+    return new StringBuilder("[").append(idExpression).append(" > ").append(afterId)
+        .append("][").append(idExpression).append(" <= ").append(throughId).append("]")
+        .toString();
+  }
+
   /**
    * Get a predicate for a single piece of system metadata.
    * <p>
@@ -279,6 +395,36 @@ public class SearchUtils {
     return query.toString();
   }
 
+  /**
+   * Get the query class of searches for objects by qualified name, for the search governor.
+   * <p>
+   * Searches matching top-level MOs only may be resolved from indexes; searches using the
+   * descendant axis may not.
+   * 
+   * @param allowDescendants
+   * @return the query class.
+   */
+  private static SearchGovernor.QueryClass getQueryClass(boolean allowDescendants) {
+    return allowDescendants ? SearchGovernor.QueryClass.Heavy : SearchGovernor.QueryClass.Cheap;
+  }
+
+  /**
+   * Get an XPath expression for the given qualified name, restricted to the given scope.
+   * 
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param scope Optional scope restricting the search to the contents of one or more containers.
+   *        May send in null to search the whole database.
+   * @return An XPath expression that selects elements with the specified qualified name. Other
+   *         XPath predicates may be added to this XPath expression in order to further restrict the
+   *         node set.
+   */
+  public static String getXPathExpression(QName qname, boolean allowDescendants,
+      SearchScope scope) {
+    return SearchScope.apply(scope, getXPathExpression(qname, allowDescendants));
+  }
+
   /**
    * Search for XML MOs, non-XML MOs, or even CANodes.
    * <p>
@@ -357,7 +503,65 @@ public class SearchUtils {
   public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
       QName qname, boolean allowDescendants, List<NameValuesPair> lmdCriteria, int maxResultCount)
       throws RSuiteException {
-    StringBuilder query = new StringBuilder(getXPathExpression(qname, allowDescendants));
+    return searchForManagedObjects(user, searchService, qname, allowDescendants, lmdCriteria,
+        maxResultCount, null);
+  }
+
+  /**
+   * Search for XML MOs, non-XML MOs, or even CANodes.
+   * <p>
+   * Given a list of MOs is returned, as opposed to an instance of <code>Search</code>, this is only
+   * intended to be used when a small number of matches are expected. Alternatives exist, but may
+   * not be implemented in this class.
+   * 
+   * @param user
+   * @param searchService
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param lmdCriteria Optional LMD name-values pairs to incorporate into the search criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
+      QName qname, boolean allowDescendants, List<NameValuesPair> lmdCriteria, int maxResultCount,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
+    return searchForManagedObjects(user, searchService, null, qname, allowDescendants,
+        lmdCriteria, maxResultCount, cancellationToken);
+  }
+
+  /**
+   * Search for XML MOs, non-XML MOs, or even CANodes.
+   * <p>
+   * Given a list of MOs is returned, as opposed to an instance of <code>Search</code>, this is only
+   * intended to be used when a small number of matches are expected. Alternatives exist, but may
+   * not be implemented in this class.
+   * 
+   * @param user
+   * @param searchService
+   * @param scope Optional scope restricting the search to the contents of one or more containers.
+   *        May send in null to search the whole database.
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param lmdCriteria Optional LMD name-values pairs to incorporate into the search criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
+      SearchScope scope, QName qname, boolean allowDescendants, List<NameValuesPair> lmdCriteria,
+      int maxResultCount, SearchCancellationToken cancellationToken) throws RSuiteException {
+    StringBuilder query = new StringBuilder(getXPathExpression(qname, allowDescendants, scope));
 
     // LMD constraints
     if (lmdCriteria != null) {
@@ -366,7 +570,8 @@ public class SearchUtils {
       }
     }
 
-    return searchForObjects(user, searchService, query.toString(), maxResultCount);
+    return searchForObjects(user, searchService, query.toString(),
+        getQueryClass(allowDescendants), null, maxResultCount, cancellationToken);
   }
 
   /**
@@ -394,14 +599,158 @@ public class SearchUtils {
   public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
       QName qname, boolean allowDescendants, boolean valuesAreTypes, List<String> aliasValues,
       int maxResultCount) throws RSuiteException {
-    StringBuilder query = new StringBuilder(getXPathExpression(qname, allowDescendants));
+    return searchForManagedObjects(user, searchService, null, qname, allowDescendants,
+        valuesAreTypes, aliasValues, maxResultCount);
+  }
+
+  /**
+   * Instance method to search for MOs by alias.
+   * <p>
+   * Wraps
+   * {@link #searchForManagedObjects(User, SearchService, AliasExistenceCache, QName, boolean, boolean, List, int)},
+   * using this instance's alias existence cache, if one was set.
+   * 
+   * @param user
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param valuesAreTypes Submit true if the provided value(s) is an alias type. Submit false when
+   *        the value(s) is an alias name/text.
+   * @param aliasValues One or more alias values that align with the valuesAreTypes parameter value.
+   *        Optional. May send in null or an empty list to exclude this criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public List<ManagedObject> iSearchForManagedObjects(User user, QName qname,
+      boolean allowDescendants, boolean valuesAreTypes, List<String> aliasValues,
+      int maxResultCount) throws RSuiteException {
+    return searchForManagedObjects(user, searchService, aliasExistenceCache, qname,
+        allowDescendants, valuesAreTypes, aliasValues, maxResultCount);
+  }
+
+  /**
+   * Search for MOs by alias, consulting an alias existence cache before going to RXS.
+   * <p>
+   * When the cache knows none of the alias values can match, an empty list is returned without
+   * searching. When a search finds no matches, the cache is told so.
+   * 
+   * @param user
+   * @param searchService
+   * @param aliasExistenceCache Optional. May send in null to always search.
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param valuesAreTypes Submit true if the provided value(s) is an alias type. Submit false when
+   *        the value(s) is an alias name/text.
+   * @param aliasValues One or more alias values that align with the valuesAreTypes parameter value.
+   *        Optional. May send in null or an empty list to exclude this criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
+      AliasExistenceCache aliasExistenceCache, QName qname, boolean allowDescendants,
+      boolean valuesAreTypes, List<String> aliasValues, int maxResultCount)
+      throws RSuiteException {
+    return searchForManagedObjects(user, searchService, aliasExistenceCache, qname,
+        allowDescendants, valuesAreTypes, aliasValues, maxResultCount, null);
+  }
+
+  /**
+   * Search for MOs by alias, consulting an alias existence cache before going to RXS.
+   * <p>
+   * When the cache knows none of the alias values can match, an empty list is returned without
+   * searching. When a search finds no matches, the cache is told so.
+   * 
+   * @param user
+   * @param searchService
+   * @param aliasExistenceCache Optional. May send in null to always search.
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param valuesAreTypes Submit true if the provided value(s) is an alias type. Submit false when
+   *        the value(s) is an alias name/text.
+   * @param aliasValues One or more alias values that align with the valuesAreTypes parameter value.
+   *        Optional. May send in null or an empty list to exclude this criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
+      AliasExistenceCache aliasExistenceCache, QName qname, boolean allowDescendants,
+      boolean valuesAreTypes, List<String> aliasValues, int maxResultCount,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
+    return searchForManagedObjects(user, searchService, aliasExistenceCache, null, qname,
+        allowDescendants, valuesAreTypes, aliasValues, maxResultCount, cancellationToken);
+  }
+
+  /**
+   * Search for MOs by alias, consulting an alias existence cache before going to RXS.
+   * <p>
+   * When the cache knows none of the alias values can match, an empty list is returned without
+   * searching. When a search finds no matches, the cache is told so.
+   * 
+   * @param user
+   * @param searchService
+   * @param aliasExistenceCache Optional. May send in null to always search.
+   * @param scope Optional scope restricting the search to the contents of one or more containers.
+   *        May send in null to search the whole database.
+   * @param qname The qualified name of the objects to find.
+   * @param allowDescendants Submit true if qualifying objects may not be top-level MOs (slower
+   *        search). Submit false if qualifying objects may only be top-level MOs (faster search).
+   * @param valuesAreTypes Submit true if the provided value(s) is an alias type. Submit false when
+   *        the value(s) is an alias name/text.
+   * @param aliasValues One or more alias values that align with the valuesAreTypes parameter value.
+   *        Optional. May send in null or an empty list to exclude this criteria.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of qualifying MOs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForManagedObjects(User user, SearchService searchService,
+      AliasExistenceCache aliasExistenceCache, SearchScope scope, QName qname,
+      boolean allowDescendants, boolean valuesAreTypes, List<String> aliasValues,
+      int maxResultCount, SearchCancellationToken cancellationToken) throws RSuiteException {
+    String baseExpression = getXPathExpression(qname, allowDescendants, scope);
+    StringBuilder query = new StringBuilder(baseExpression);
+
+    boolean haveAliasValues = aliasValues != null && aliasValues.size() > 0;
+    boolean useCache = aliasExistenceCache != null && haveAliasValues;
+    long generation = 0;
+    if (useCache) {
+      if (aliasExistenceCache.isKnownAbsent(baseExpression, valuesAreTypes, aliasValues)) {
+        log.info("Alias existence cache answered search for " + aliasValues + " without RXS.");
+        return new ArrayList<ManagedObject>();
+      }
+      generation = aliasExistenceCache.getGeneration();
+    }
 
-    if (aliasValues != null && aliasValues.size() > 0) {
+    if (haveAliasValues) {
       query.append(getAliasXPathPredicate(valuesAreTypes,
           aliasValues.toArray(new String[aliasValues.size()])));
     }
 
-    return searchForObjects(user, searchService, query.toString(), maxResultCount);
+    List<ManagedObject> results = searchForObjects(user, searchService, query.toString(),
+        getQueryClass(allowDescendants), null, maxResultCount, cancellationToken);
+
+    if (useCache && results.isEmpty()
+        && (cancellationToken == null || !cancellationToken.isTruncated())) {
+      aliasExistenceCache.recordAbsent(baseExpression, valuesAreTypes, aliasValues, generation);
+    }
+
+    return results;
   }
 
   /**
@@ -508,7 +857,61 @@ public class SearchUtils {
   public static List<ManagedObject> searchForContentAssemblies(User user,
       SearchService searchService, String caType, List<NameValuesPair> lmdCriteria,
       String excludeId, List<SortOrder> sortOrder, int maxResultCount) throws RSuiteException {
-    StringBuilder query = new StringBuilder(XPATH_ANY_CA);
+    return searchForContentAssemblies(user, searchService, caType, lmdCriteria, excludeId,
+        sortOrder, maxResultCount, null);
+  }
+
+  /**
+   * Search for a list of sorted CAs as MOs of the specified CA type and LMD, less the specified one
+   * to excluded.
+   * 
+   * @param user
+   * @param searchService
+   * @param caType Optional CA type to restrict results to.
+   * @param lmdCriteria Optional list of LMD name-value pairs to restrict results to.
+   * @param excludeId Optional CA ID to exclude.
+   * @param sortOrder Optional sort order. May send null in.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return A sorted list of MOs that are CAs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForContentAssemblies(User user,
+      SearchService searchService, String caType, List<NameValuesPair> lmdCriteria,
+      String excludeId, List<SortOrder> sortOrder, int maxResultCount,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
+    return searchForContentAssemblies(user, searchService, null, caType, lmdCriteria, excludeId,
+        sortOrder, maxResultCount, cancellationToken);
+  }
+
+  /**
+   * Search for a list of sorted CAs as MOs of the specified CA type and LMD, less the specified one
+   * to excluded.
+   * 
+   * @param user
+   * @param searchService
+   * @param scope Optional scope restricting the search to the contents of one or more containers.
+   *        May send in null to search the whole database.
+   * @param caType Optional CA type to restrict results to.
+   * @param lmdCriteria Optional list of LMD name-value pairs to restrict results to.
+   * @param excludeId Optional CA ID to exclude.
+   * @param sortOrder Optional sort order. May send null in.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return A sorted list of MOs that are CAs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForContentAssemblies(User user,
+      SearchService searchService, SearchScope scope, String caType,
+      List<NameValuesPair> lmdCriteria, String excludeId, List<SortOrder> sortOrder,
+      int maxResultCount, SearchCancellationToken cancellationToken) throws RSuiteException {
+    StringBuilder query = new StringBuilder(SearchScope.apply(scope, XPATH_ANY_CA));
 
     // ID constraint
     if (StringUtils.isNotBlank(excludeId)) {
@@ -527,7 +930,29 @@ public class SearchUtils {
       }
     }
 
-    return searchForObjects(user, searchService, query.toString(), sortOrder, maxResultCount);
+    return searchForObjects(user, searchService, query.toString(),
+        SearchGovernor.QueryClass.Cheap, sortOrder, maxResultCount, cancellationToken);
+  }
+
+  /**
+   * Get a list of CAs as MOs within the given scope, matching the specified type and LMD.
+   * 
+   * @param user
+   * @param searchService
+   * @param scope Scope restricting the search to the contents of one or more containers.
+   * @param caType Optional CA type to restrict results to.
+   * @param lmdCriteria Optional list of LMD name-value pairs to restrict results to.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @return A list of MOs that are CAs.
+   * @throws RSuiteException
+   */
+  public static List<ManagedObject> searchForContentAssemblies(User user,
+      SearchService searchService, SearchScope scope, String caType,
+      List<NameValuesPair> lmdCriteria, int maxResultCount) throws RSuiteException {
+    return searchForContentAssemblies(user, searchService, scope, caType, lmdCriteria, null, null,
+        maxResultCount, null);
   }
 
   /**
@@ -555,9 +980,10 @@ public class SearchUtils {
    * Instance method to get a list of MOs that are content assemblies matching the specified type
    * and LMD.
    * <p>
-   * Simply wraps
-   * {@link #searchForContentAssemblyIds(User, SearchService, String, String, String, int)},
-   * facilitating unit testing.
+   * Wraps
+   * {@link #searchForContentAssemblyIds(User, SearchService, WarmSearchIndex, String, List, int)},
+   * using this instance's warm search index, if one was set. In that case, the results may include
+   * the IDs of CAs deleted since the index's last full load.
    * <p>
    * Don't use this implementation if you expect many results. In that case,
    * SearchService#constructSearch() should be used.
@@ -575,7 +1001,11 @@ public class SearchUtils {
    */
   public List<String> iSearchForContentAssemblyIds(User user, String caType, String lmdName,
       String lmdValue, int maxResultCount) throws RSuiteException {
-    return searchForContentAssemblyIds(user, searchService, caType, lmdName, lmdValue,
+    List<NameValuesPair> lmdCriteria = null;
+    if (StringUtils.isNotBlank(lmdName) && StringUtils.isNotBlank(lmdValue)) {
+      lmdCriteria = NameValuesPair.getStarterList(lmdName, lmdValue);
+    }
+    return searchForContentAssemblyIds(user, searchService, warmSearchIndex, caType, lmdCriteria,
         maxResultCount);
   }
 
@@ -626,6 +1056,72 @@ public class SearchUtils {
    */
   public static List<String> searchForContentAssemblyIds(User user, SearchService searchService,
       String caType, List<NameValuesPair> lmdCriteria, int maxResultCount) throws RSuiteException {
+    return searchForContentAssemblyIds(user, searchService, null, caType, lmdCriteria,
+        maxResultCount);
+  }
+
+  /**
+   * Get a list of MOs that are content assemblies matching the specified type and LMD, consulting
+   * a warm search index before going to RXS.
+   * <p>
+   * The index is only consulted if its scope query is that of the CA type, i.e.,
+   * <code>XPATH_ANY_CA + getSystemMetadataXPathPredicate(SystemMetadata.CAType, caType)</code>,
+   * and it is able to answer. Otherwise, a search is performed.
+   * <p>
+   * When the index answers, the results may include the IDs of CAs that were deleted, or whose
+   * type or LMD changed, since the index's last full load, which is at most the index's staleness
+   * bound ago. Send in a null index when that is not acceptable.
+   * 
+   * @param user
+   * @param searchService
+   * @param warmSearchIndex Optional. May send in null to always search.
+   * @param caType Required
+   * @param lmdCriteria Optional. List of LMD name and value pairs to incorporate as search
+   *        criteria. Repeating LMD supported.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @return list of matching CA IDs.
+   * @throws RSuiteException Throw if a parameter value is invalid, or RSuite encounters an
+   *         exception with the search.
+   */
+  public static List<String> searchForContentAssemblyIds(User user, SearchService searchService,
+      WarmSearchIndex warmSearchIndex, String caType, List<NameValuesPair> lmdCriteria,
+      int maxResultCount) throws RSuiteException {
+    return searchForContentAssemblyIds(user, searchService, warmSearchIndex, caType, lmdCriteria,
+        maxResultCount, null);
+  }
+
+  /**
+   * Get a list of MOs that are content assemblies matching the specified type and LMD, consulting
+   * a warm search index before going to RXS.
+   * <p>
+   * The index is only consulted if its scope query is that of the CA type, i.e.,
+   * <code>XPATH_ANY_CA + getSystemMetadataXPathPredicate(SystemMetadata.CAType, caType)</code>,
+   * and it is able to answer. Otherwise, a search is performed.
+   * <p>
+   * When the index answers, the results may include the IDs of CAs that were deleted, or whose
+   * type or LMD changed, since the index's last full load, which is at most the index's staleness
+   * bound ago. Send in a null index when that is not acceptable.
+   * 
+   * @param user
+   * @param searchService
+   * @param warmSearchIndex Optional. May send in null to always search.
+   * @param caType Required
+   * @param lmdCriteria Optional. List of LMD name and value pairs to incorporate as search
+   *        criteria. Repeating LMD supported.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of matching CA IDs.
+   * @throws RSuiteException Throw if a parameter value is invalid, or RSuite encounters an
+   *         exception with the search.
+   */
+  public static List<String> searchForContentAssemblyIds(User user, SearchService searchService,
+      WarmSearchIndex warmSearchIndex, String caType, List<NameValuesPair> lmdCriteria,
+      int maxResultCount, SearchCancellationToken cancellationToken) throws RSuiteException {
     StringBuilder query = new StringBuilder(XPATH_ANY_CA);
 
     if (StringUtils.isBlank(caType))
@@ -633,6 +1129,17 @@ public class SearchUtils {
     // CA type constraint
     query.append(getSystemMetadataXPathPredicate(SystemMetadata.CAType, caType));
 
+    if (warmSearchIndex != null) {
+      List<String> ids = warmSearchIndex.getIds(query.toString(), lmdCriteria);
+      if (ids != null) {
+        if (maxResultCount > 0 && ids.size() > maxResultCount) {
+          throw new RSuiteException(
+              "Max result count threshold of " + maxResultCount + " exceeded.");
+        }
+        return ids;
+      }
+    }
+
     // LMD constraints
     if (lmdCriteria != null) {
       for (NameValuesPair lmdPair : lmdCriteria) {
@@ -640,7 +1147,12 @@ public class SearchUtils {
       }
     }
 
-    return searchForObjectIds(user, searchService, query.toString(), maxResultCount);
+    List<String> ids = new ArrayList<String>();
+    for (ManagedObject mo : searchForObjects(user, searchService, query.toString(),
+        SearchGovernor.QueryClass.Cheap, null, maxResultCount, cancellationToken)) {
+      ids.add(mo.getId());
+    }
+    return ids;
   }
 
   /**
@@ -685,9 +1197,36 @@ public class SearchUtils {
    */
   public static List<String> searchForObjectIds(User user, SearchService searchService,
       String query, List<SortOrder> sortOrder, int maxResultCount) throws RSuiteException {
+    return searchForObjectIds(user, searchService, query, sortOrder, maxResultCount, null);
+  }
+
+  /**
+   * Search for the IDs of qualifying objects using an XPath expression.
+   * <p>
+   * The maximum number of search results imposed by SearchService#executeXPathSearch() is not
+   * imposed by this method.
+   * <p>
+   * Default sort order applies.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param sortOrder Optional sort order. May submit null.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return A list of RSuite IDs to qualifying objects. Objects may include MOs and containers.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search.
+   */
+  public static List<String> searchForObjectIds(User user, SearchService searchService,
+      String query, List<SortOrder> sortOrder, int maxResultCount,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
     List<String> ids = new ArrayList<String>();
     List<ManagedObject> moList =
-        searchForObjects(user, searchService, query, sortOrder, maxResultCount);
+        searchForObjects(user, searchService, query, sortOrder, maxResultCount,
+            cancellationToken);
     if (moList != null) {
       for (ManagedObject mo : moList) {
         ids.add(mo.getId());
@@ -737,10 +1276,170 @@ public class SearchUtils {
    * @throws RSuiteException Throw if RSuite encounters an exception with the search.
    */
   public static List<ManagedObject> searchForObjects(User user, SearchService searchService,
-      String query, List<SortOrder> sortOrder, int maxResultCount) throws RSuiteException {
+      String query, List<SortOrder> sortOrder, final int maxResultCount) throws RSuiteException {
+    return searchForObjects(user, searchService, query, sortOrder, maxResultCount, null);
+  }
+
+  /**
+   * Execute an XPath-based search, whereby a purpose and maximum number of results may be
+   * specified.
+   * <p>
+   * The maximum number of search results imposed by SearchService#executeXPathSearch() is not
+   * imposed by this method.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param sortOrder Optional sort order. May submit null.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of matching MO objects, which may include containers.
+   * @throws RSuiteException Throw if RSuite encounters an exception with the search.
+   */
+  public static List<ManagedObject> searchForObjects(User user, SearchService searchService,
+      String query, List<SortOrder> sortOrder, int maxResultCount,
+      SearchCancellationToken cancellationToken) throws RSuiteException {
+    return searchForObjects(user, searchService, query, null, sortOrder, maxResultCount,
+        cancellationToken);
+  }
+
+  /**
+   * Execute an XPath-based search, declaring the query's class to the search governor.
+   * <p>
+   * Callers that build the query know better than {@link SearchGovernor#classify(String)} whether
+   * it may be resolved from indexes alone, and should say so.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param queryClass Optional. May send in null to have the governor classify the query.
+   * @param sortOrder Optional sort order. May submit null.
+   * @param maxResultCount Indicate the maximum number of desired search results. For instance, if
+   *        you only expect one, pass in two. This is an efficient way to get the one result you
+   *        want, while also making sure there is only one. Send in 0 for all.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @return list of matching MO objects, which may include containers.
+   * @throws RSuiteException Throw if RSuite encounters an exception with the search.
+   */
+  public static List<ManagedObject> searchForObjects(User user, SearchService searchService,
+      String query, SearchGovernor.QueryClass queryClass, List<SortOrder> sortOrder,
+      final int maxResultCount, SearchCancellationToken cancellationToken)
+      throws RSuiteException {
+
+    final List<ManagedObject> results = new ArrayList<ManagedObject>();
+    scanObjects(user, searchService, query, queryClass, cancellationToken,
+        new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+            results.add(mo);
+            if (maxResultCount > 0 && position > maxResultCount) {
+              throw new RSuiteException(
+                  "Max result count threshold of " + maxResultCount + " exceeded.");
+            }
+            return true;
+          }
+        });
+
+    return results;
+  }
+
+  /**
+   * Execute an XPath-based search, handing each result to the given handler as RSuite provides it.
+   * <p>
+   * Unlike {@link #searchForObjects(User, SearchService, String, List, int)}, results are not
+   * collected into a list, making this suitable for large result sets.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param handler Receives each result, and may stop the search early.
+   * @return the number of results handed to the handler.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search, or by the
+   *         handler.
+   */
+  public static int scanObjects(User user, SearchService searchService, String query,
+      SearchResultHandler handler) throws RSuiteException {
+    return scanObjects(user, searchService, query, null, handler);
+  }
+
+  /**
+   * Execute an XPath-based search, handing each result to the given handler as RSuite provides it.
+   * <p>
+   * Unlike {@link #searchForObjects(User, SearchService, String, List, int)}, results are not
+   * collected into a list, making this suitable for large result sets.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @param handler Receives each result, and may stop the search early.
+   * @return the number of results handed to the handler.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search, or by the
+   *         handler.
+   */
+  public static int scanObjects(User user, SearchService searchService, String query,
+      SearchCancellationToken cancellationToken, SearchResultHandler handler) throws RSuiteException {
+    return scanObjects(user, searchService, query, null, cancellationToken, handler);
+  }
+
+  /**
+   * Execute an XPath-based search, handing each result to the given handler as RSuite provides it,
+   * declaring the query's class to the search governor.
+   * <p>
+   * Bulk scans should declare themselves {@link SearchGovernor.QueryClass#Heavy}, as they hold
+   * their governor permit for as long as they take to collect their results, even when their query
+   * is cheap to resolve.
+   * 
+   * @param user
+   * @param searchService
+   * @param query
+   * @param queryClass Optional. May send in null to have the governor classify the query.
+   * @param cancellationToken Optional token to cancel the search or bound it by a deadline. May
+   *        send in null.
+   * @param handler Receives each result, and may stop the search early.
+   * @return the number of results handed to the handler.
+   * @throws RSuiteException Thrown if RSuite encounters an exception with the search, or by the
+   *         handler.
+   */
+  public static int scanObjects(User user, SearchService searchService, String query,
+      SearchGovernor.QueryClass queryClass, SearchCancellationToken cancellationToken,
+      SearchResultHandler handler) throws RSuiteException {
+
+    if (cancellationToken != null && cancellationToken.isStopRequested()) {
+      return stop(cancellationToken, query, 0);
+    }
+
+    SearchGovernor governor = searchGovernor;
+    SearchGovernor.Permit permit = null;
+    if (governor != null) {
+      if (queryClass == null) {
+        queryClass = SearchGovernor.classify(query);
+      }
+      try {
+        permit = cancellationToken == null ? governor.acquire(queryClass)
+            : governor.acquire(queryClass, cancellationToken.getRemainingMillis());
+      } catch (RSuiteException e) {
+        /*
+         * Running out of time while waiting for a permit is no different from running out of time
+         * between results. Any other rejection stands.
+         */
+        if (cancellationToken == null || !cancellationToken.isPartialResultsAllowed()
+            || !cancellationToken.isStopRequested()) {
+          throw e;
+        }
+        return stop(cancellationToken, query, 0);
+      }
+    }
 
     // Perform search
-    List<ManagedObject> results = new ArrayList<ManagedObject>();
+    int count = 0;
+    long handlerNanos = 0;
+    String outcome = QueryWorkloadRecorder.OUTCOME_ERROR;
     log.info("Submitting XPath search: " + query);
     Date start = new Date();
     try {
@@ -749,11 +1448,26 @@ public class SearchUtils {
 
       ContentDisplayObject item;
       int i = 0;
-      while ((item = search.getResults().getResult(++i)) != null) {
-        results.add(item.getManagedObject());
-        if (maxResultCount > 0 && i > maxResultCount) {
-          throw new RSuiteException(
-              "Max result count threshold of " + maxResultCount + " exceeded.");
+      boolean stopRequested = false;
+      /*
+       * The token is checked before each result is requested, as requesting the first result of a
+       * bucket is what sends RSuite back to MarkLogic.
+       */
+      while (!(stopRequested = isStopRequested(cancellationToken))
+          && (item = search.getResults().getResult(++i)) != null) {
+        count++;
+        if (permit != null) {
+          permit.firstResultReceived();
+        }
+        long handlerStart = System.nanoTime();
+        boolean more;
+        try {
+          more = handler.handleResult(item.getManagedObject(), i);
+        } finally {
+          handlerNanos += System.nanoTime() - handlerStart;
+        }
+        if (!more) {
+          break;
         }
         /*
          * By default, RSuite goes back to MarkLogic every 600 results. This can be overridden by
@@ -765,13 +1479,55 @@ public class SearchUtils {
               .append(new Date().getTime() - start.getTime()).append(" millis").toString());
         }
       }
+      if (stopRequested) {
+        // Dropping the search here leaves the remaining buckets unrequested.
+        stop(cancellationToken, query, count);
+        outcome = QueryWorkloadRecorder.OUTCOME_TRUNCATED;
+      } else {
+        outcome = QueryWorkloadRecorder.OUTCOME_OK;
+      }
     } finally {
-      log.info(new StringBuilder("Complete: collected ").append(results.size())
-          .append(" search results in ").append(new Date().getTime() - start.getTime())
-          .append(" millis").toString());
+      if (permit != null) {
+        permit.release();
+      }
+      long elapsed = new Date().getTime() - start.getTime();
+      QueryWorkloadRecorder recorder = queryWorkloadRecorder;
+      if (recorder != null) {
+        // Time spent in the handler is the caller's, not the search's.
+        long handlerMillis = Math.min(elapsed, TimeUnit.NANOSECONDS.toMillis(handlerNanos));
+        recorder.record(query, queryClass, start.getTime(), elapsed - handlerMillis,
+            handlerMillis, count, outcome);
+      }
+      log.info(new StringBuilder("Complete: collected ").append(count)
+          .append(" search results in ").append(elapsed).append(" millis").toString());
     }
 
-    return results;
+    return count;
+  }
+
+  private static boolean isStopRequested(SearchCancellationToken cancellationToken) {
+    return cancellationToken != null && cancellationToken.isStopRequested();
+  }
+
+  /**
+   * Stop a search whose cancellation token requested it, either by marking the results as
+   * truncated or by throwing an exception, as the token dictates.
+   * 
+   * @param cancellationToken
+   * @param query
+   * @param count Number of results collected before stopping.
+   * @return the number of results collected.
+   * @throws RSuiteException Thrown unless the token allows partial results.
+   */
+  private static int stop(SearchCancellationToken cancellationToken, String query, int count)
+      throws RSuiteException {
+    log.info(new StringBuilder(cancellationToken.getStopReason()).append(" Stopped after ")
+        .append(count).append(" search results: ").append(query).toString());
+    if (!cancellationToken.isPartialResultsAllowed()) {
+      throw new RSuiteException(cancellationToken.getStopReason());
+    }
+    cancellationToken.setTruncated();
+    return count;
   }
 
 }
@@ -0,0 +1,406 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.reallysi.rsuite.api.Alias;
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.MetaDataItem;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.reallysi.rsuite.api.User;
+import com.reallysi.rsuite.service.SearchService;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+/**
+ * Optional, in-process index from LMD and alias values to the IDs of the objects having them.
+ * <p>
+ * Meant for LMD names and alias values with bounded cardinality that are read far more often than
+ * they change. The index covers the objects selected by a scope query, such as
+ * <code>SearchUtils.XPATH_ANY_CA + SearchUtils.getSystemMetadataXPathPredicate(SystemMetadata.CAType, caType)</code>.
+ * It only answers lookups with the very same scope query.
+ * <p>
+ * {@link #load(User, SearchService)} builds the index with a streaming scan of the scope.
+ * {@link #refresh(User, SearchService)} re-indexes objects modified since the last load or
+ * refresh. Deleted objects, and objects modified such that they no longer match the scope query,
+ * are not noticed by a refresh, so lookups may return their IDs until the next full load.
+ * <p>
+ * The staleness bound is therefore measured from the last full load, and a refresh does not
+ * extend it. Once the last full load is older than the bound, a refresh performs a full load
+ * instead. Schedule refreshes well within the bound, and expect lookups to be answered by a search
+ * from when the bound passes until the next refresh completes.
+ * <p>
+ * Lookups return null, telling the caller to search, when the index cannot answer: the scope
+ * differs, an LMD name is not indexed, or the last full load is older than the configured bound.
+ * <p>
+ * Instances are thread-safe and may be shared.
+ */
+public class WarmSearchIndex {
+
+  /**
+   * Class log
+   */
+  private final static Log log = LogFactory.getLog(WarmSearchIndex.class);
+
+  /**
+   * Default allowance for the difference between this JVM's clock and the database's.
+   */
+  public final static long DEFAULT_CLOCK_SKEW_MILLIS = 60000;
+
+  private final String scopeQuery;
+  private final Set<String> lmdNames;
+  private final boolean indexAliases;
+  private final long maxStalenessMillis;
+  private long clockSkewMillis = DEFAULT_CLOCK_SKEW_MILLIS;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Serializes loads and refreshes.
+   */
+  private final Object refreshMonitor = new Object();
+
+  /**
+   * Index key to IDs of objects having that key.
+   */
+  private Map<String, Set<String>> idsByKey = new HashMap<String, Set<String>>();
+
+  /**
+   * ID of each indexed object to its index keys. Used to re-index modified objects.
+   */
+  private Map<String, List<String>> keysById = new HashMap<String, List<String>>();
+
+  /**
+   * Start time of the last successful load or refresh; 0 if never loaded.
+   */
+  private volatile long asOf;
+
+  /**
+   * Start time of the last successful full load; 0 if never loaded.
+   */
+  private volatile long loadedAt;
+
+  /**
+   * Construct an index, which will be empty until loaded.
+   * 
+   * @param scopeQuery XPath expression selecting the objects to index.
+   * @param lmdNames Names of the LMD to index. May be empty.
+   * @param indexAliases Submit true to also index alias types and texts.
+   * @param maxStalenessMillis Lookups are only answered if the index was fully loaded within
+   *        this many milliseconds.
+   */
+  public WarmSearchIndex(String scopeQuery, Collection<String> lmdNames, boolean indexAliases,
+      long maxStalenessMillis) {
+    this.scopeQuery = scopeQuery;
+    this.lmdNames = new HashSet<String>(lmdNames);
+    this.indexAliases = indexAliases;
+    this.maxStalenessMillis = maxStalenessMillis;
+  }
+
+  public String getScopeQuery() {
+    return scopeQuery;
+  }
+
+  public long getClockSkewMillis() {
+    return clockSkewMillis;
+  }
+
+  /**
+   * Set how far back from the last refresh's start time the next refresh is to look, to allow for
+   * the difference between this JVM's clock and the database's.
+   * 
+   * @param clockSkewMillis
+   */
+  public void setClockSkewMillis(long clockSkewMillis) {
+    this.clockSkewMillis = clockSkewMillis;
+  }
+
+  /**
+   * @return When the last successful load or refresh started; null if never loaded.
+   */
+  public Date getAsOf() {
+    return asOf == 0 ? null : new Date(asOf);
+  }
+
+  /**
+   * @return When the last successful full load started; null if never loaded.
+   */
+  public Date getLoadedAt() {
+    return loadedAt == 0 ? null : new Date(loadedAt);
+  }
+
+  /**
+   * Find out if the index may currently answer lookups.
+   * 
+   * @return true if the last full load is within the staleness bound.
+   */
+  public boolean isFresh() {
+    long loadedAt = this.loadedAt;
+    return loadedAt > 0 && System.currentTimeMillis() - loadedAt <= maxStalenessMillis;
+  }
+
+  /**
+   * Build the index from scratch, by way of a streaming scan of the scope query, declared heavy to
+   * the search governor. Lookups continue to be served by the previous contents until the new
+   * contents are complete.
+   * 
+   * @param user
+   * @param searchService
+   * @return the number of objects indexed.
+   * @throws RSuiteException
+   */
+  public int load(User user, SearchService searchService) throws RSuiteException {
+    synchronized (refreshMonitor) {
+      long start = System.currentTimeMillis();
+      final Map<String, Set<String>> newIdsByKey = new HashMap<String, Set<String>>();
+      final Map<String, List<String>> newKeysById = new HashMap<String, List<String>>();
+
+      int count = SearchUtils.scanObjects(user, searchService, scopeQuery, QueryClass.Heavy, null,
+          new SearchResultHandler() {
+            @Override
+            public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+              add(newIdsByKey, newKeysById, mo.getId(), getKeys(mo));
+              return true;
+            }
+          });
+
+      lock.writeLock().lock();
+      try {
+        idsByKey = newIdsByKey;
+        keysById = newKeysById;
+        asOf = start;
+        loadedAt = start;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      log.info(new StringBuilder("Loaded warm search index of ").append(count)
+          .append(" objects for scope ").append(scopeQuery).toString());
+      return count;
+    }
+  }
+
+  /**
+   * Re-index the objects within scope that were modified since the last load or refresh. Loads the
+   * index if it was never loaded, or if the last full load is older than the staleness bound.
+   * 
+   * @param user
+   * @param searchService
+   * @return the number of objects re-indexed.
+   * @throws RSuiteException
+   */
+  public int refresh(User user, SearchService searchService) throws RSuiteException {
+    synchronized (refreshMonitor) {
+      if (loadedAt == 0 || System.currentTimeMillis() - loadedAt > maxStalenessMillis) {
+        return load(user, searchService);
+      }
+
+      long start = System.currentTimeMillis();
+      String query = new StringBuilder(scopeQuery)
+          .append(SearchUtils.getModifiedSinceXPathPredicate(new Date(asOf - clockSkewMillis)))
+          .toString();
+
+      // Collect outside of the write lock, so lookups are not blocked by RXS.
+      final Map<String, List<String>> modified = new HashMap<String, List<String>>();
+      SearchUtils.scanObjects(user, searchService, query, QueryClass.Heavy, null,
+          new SearchResultHandler() {
+            @Override
+            public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+              modified.put(mo.getId(), getKeys(mo));
+              return true;
+            }
+          });
+
+      lock.writeLock().lock();
+      try {
+        for (Map.Entry<String, List<String>> entry : modified.entrySet()) {
+          remove(entry.getKey());
+          add(idsByKey, keysById, entry.getKey(), entry.getValue());
+        }
+        asOf = start;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      return modified.size();
+    }
+  }
+
+  /**
+   * Get the IDs of objects matching all of the LMD criteria, where an object matches a criterion if
+   * it has any of the criterion's values.
+   * 
+   * @param scopeQuery Scope query of the search being answered.
+   * @param lmdCriteria Optional. Null or empty matches every object in scope.
+   * @return IDs of matching objects, or null if the index cannot answer. May include the IDs of
+   *         objects deleted or moved out of scope since the last full load.
+   */
+  public List<String> getIds(String scopeQuery, List<NameValuesPair> lmdCriteria) {
+    if (!this.scopeQuery.equals(scopeQuery) || !isFresh()) {
+      return null;
+    }
+    if (lmdCriteria != null) {
+      for (NameValuesPair lmdPair : lmdCriteria) {
+        if (!lmdNames.contains(lmdPair.getName())) {
+          return null;
+        }
+      }
+    }
+
+    lock.readLock().lock();
+    try {
+      Set<String> ids = null;
+      if (lmdCriteria == null || lmdCriteria.isEmpty()) {
+        ids = keysById.keySet();
+      } else {
+        for (NameValuesPair lmdPair : lmdCriteria) {
+          List<String> keys = new ArrayList<String>();
+          for (String value : lmdPair.getValues()) {
+            keys.add(getLmdKey(lmdPair.getName(), value));
+          }
+          ids = intersect(ids, union(keys));
+          if (ids.isEmpty()) {
+            break;
+          }
+        }
+      }
+      return new ArrayList<String>(ids);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the IDs of objects having an alias with any of the given types or texts.
+   * 
+   * @param scopeQuery Scope query of the search being answered.
+   * @param valuesAreTypes Submit true if the provided value(s) is an alias type. Submit false when
+   *        the value(s) is an alias name/text.
+   * @param aliasValues
+   * @return IDs of matching objects, or null if the index cannot answer. May include the IDs of
+   *         objects deleted or moved out of scope since the last full load.
+   */
+  public List<String> getIdsByAlias(String scopeQuery, boolean valuesAreTypes,
+      List<String> aliasValues) {
+    if (!indexAliases || !this.scopeQuery.equals(scopeQuery) || !isFresh()) {
+      return null;
+    }
+
+    List<String> keys = new ArrayList<String>();
+    for (String value : aliasValues) {
+      keys.add(getAliasKey(valuesAreTypes, value));
+    }
+
+    lock.readLock().lock();
+    try {
+      return new ArrayList<String>(union(keys));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Caller must hold the read or write lock.
+   */
+  private Set<String> union(List<String> keys) {
+    Set<String> ids = new HashSet<String>();
+    for (String key : keys) {
+      Set<String> keyIds = idsByKey.get(key);
+      if (keyIds != null) {
+        ids.addAll(keyIds);
+      }
+    }
+    return ids;
+  }
+
+  private static Set<String> intersect(Set<String> ids, Set<String> moreIds) {
+    if (ids == null) {
+      return moreIds;
+    }
+    ids.retainAll(moreIds);
+    return ids;
+  }
+
+  /**
+   * Caller must hold the write lock.
+   */
+  private void remove(String id) {
+    List<String> keys = keysById.remove(id);
+    if (keys != null) {
+      for (String key : keys) {
+        Set<String> ids = idsByKey.get(key);
+        if (ids != null) {
+          ids.remove(id);
+          if (ids.isEmpty()) {
+            idsByKey.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  private static void add(Map<String, Set<String>> idsByKey, Map<String, List<String>> keysById,
+      String id, List<String> keys) {
+    keysById.put(id, keys);
+    for (String key : keys) {
+      Set<String> ids = idsByKey.get(key);
+      if (ids == null) {
+        ids = new HashSet<String>(2);
+        idsByKey.put(key, ids);
+      }
+      ids.add(id);
+    }
+  }
+
+  private List<String> getKeys(ManagedObject mo) throws RSuiteException {
+    List<String> keys = new ArrayList<String>();
+    if (!lmdNames.isEmpty()) {
+      List<MetaDataItem> items = mo.getMetaDataItems();
+      if (items != null) {
+        for (MetaDataItem item : items) {
+          if (lmdNames.contains(item.getName()) && item.getValue() != null) {
+            keys.add(getLmdKey(item.getName(), item.getValue()));
+          }
+        }
+      }
+    }
+    if (indexAliases) {
+      Alias[] aliases = mo.getAliases();
+      if (aliases != null) {
+        for (Alias alias : aliases) {
+          if (StringUtils.isNotBlank(alias.getType())) {
+            keys.add(getAliasKey(true, alias.getType()));
+          }
+          if (alias.getText() != null) {
+            keys.add(getAliasKey(false, alias.getText()));
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  /*
+   * Values are trimmed, as SearchUtils#getMetadataConstraint() trims the values it searches for.
+   */
+
+  private static String getLmdKey(String name, String value) {
+    return new StringBuilder("lmd:").append(name).append('\u0000').append(value.trim())
+        .toString();
+  }
+
+  private static String getAliasKey(boolean valuesAreTypes, String value) {
+    return new StringBuilder(valuesAreTypes ? "alias-type:" : "alias-text:")
+        .append(value.trim()).toString();
+  }
+
+}
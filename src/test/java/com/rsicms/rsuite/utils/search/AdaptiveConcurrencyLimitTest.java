@@ -0,0 +1,92 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.RSuiteException;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  @Test
+  public void burstOfSlowCallsDecreasesLimitOnce() throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 20, 100, 0.5, 0, 0);
+    for (int i = 0; i < 10; i++) {
+      limit.acquire();
+    }
+    for (int i = 0; i < 10; i++) {
+      limit.release(1000);
+    }
+    assertEquals(5, limit.getLimit());
+  }
+
+  @Test
+  public void sustainedSlowCallsKeepDecreasingLimit() throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 20, 100, 0.5, 0, 0);
+    int[] expected = {4, 2, 1, 1};
+    for (int round = 0; round < expected.length; round++) {
+      int permits = limit.getLimit();
+      for (int i = 0; i < permits; i++) {
+        limit.acquire();
+      }
+      for (int i = 0; i < permits; i++) {
+        limit.release(1000);
+      }
+      assertEquals(expected[round], limit.getLimit());
+    }
+  }
+
+  @Test
+  public void fastCallsAtTheLimitIncreaseIt() throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 3, 100, 0.5, 0, 0);
+    limit.acquire();
+    for (int i = 0; i < 10; i++) {
+      limit.acquire();
+      limit.release(10);
+    }
+    assertEquals(3, limit.getLimit());
+  }
+
+  @Test
+  public void callerIsShedWhenQueueIsFull() throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 100, 0.5, 0, 1000);
+    limit.acquire();
+    try {
+      limit.acquire();
+      fail("Expected the caller to be shed.");
+    } catch (RSuiteException e) {
+      assertEquals(1, limit.getShedCount());
+    }
+  }
+
+  @Test
+  public void queuedCallerGetsReleasedPermit() throws Exception {
+    final AdaptiveConcurrencyLimit limit =
+        new AdaptiveConcurrencyLimit(1, 1, 1, 100, 0.5, 1, 5000);
+    limit.acquire();
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        limit.release(10);
+      }
+    };
+    releaser.start();
+    limit.acquire();
+    releaser.join();
+    assertEquals(1, limit.getInFlight());
+  }
+
+  @Test(expected = RSuiteException.class)
+  public void queuedCallerTimesOut() throws RSuiteException {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1, 100, 0.5, 1, 20);
+    limit.acquire();
+    limit.acquire();
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+
+public class AliasExistenceCacheTest {
+
+  private final static String SCOPE = "/rs_ca_map/rs_ca";
+
+  @Test
+  public void recordedMissIsKnownAbsentWithinItsScopeOnly() {
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    cache.recordAbsent(SCOPE, false, Arrays.asList("a"), cache.getGeneration());
+    assertTrue(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a")));
+    assertFalse(cache.isKnownAbsent("/other", false, Arrays.asList("a")));
+    assertFalse(cache.isKnownAbsent(SCOPE, true, Arrays.asList("a")));
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a", "b")));
+  }
+
+  @Test
+  public void creationDropsRecordedMiss() {
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    cache.recordAbsent(SCOPE, false, Arrays.asList("a"), cache.getGeneration());
+    cache.aliasCreated("type", "a");
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a")));
+  }
+
+  @Test
+  public void missObservedBeforeCreationIsNotRecorded() {
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    long generation = cache.getGeneration();
+    cache.valueCreated(false, "a");
+    cache.recordAbsent(SCOPE, false, Arrays.asList("a"), generation);
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a")));
+  }
+
+  @Test
+  public void recordedMissExpires() throws InterruptedException {
+    AliasExistenceCache cache = new AliasExistenceCache(10, 1);
+    cache.recordAbsent(SCOPE, false, Arrays.asList("a"), cache.getGeneration());
+    Thread.sleep(5);
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a")));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void leastRecentlyUsedMissesAreEvicted() {
+    AliasExistenceCache cache = new AliasExistenceCache(2);
+    cache.recordAbsent(SCOPE, false, Arrays.asList("a", "b"), cache.getGeneration());
+    cache.isKnownAbsent(SCOPE, false, Arrays.asList("a"));
+    cache.recordAbsent(SCOPE, false, Arrays.asList("c"), cache.getGeneration());
+    assertEquals(2, cache.size());
+    assertTrue(cache.isKnownAbsent(SCOPE, false, Arrays.asList("a")));
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("b")));
+  }
+
+  @Test
+  public void bloomFilterAnswersValuesNotInExport() throws IOException {
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    assertEquals(2, cache.loadBloomFilter(false, new StringReader("a\n\n b \n"), 100, 0.01));
+    assertTrue(cache.isKnownAbsent("/anywhere", false, Arrays.asList("c")));
+    assertFalse(cache.isKnownAbsent("/anywhere", false, Arrays.asList("b")));
+    assertFalse(cache.isKnownAbsent("/anywhere", true, Arrays.asList("c")));
+  }
+
+  @Test
+  public void valueCreatedWhileExportIsReadIsKeptByNewFilter() throws IOException {
+    final AliasExistenceCache cache = new AliasExistenceCache(10);
+    Reader export = new StringReader("a\n") {
+      private boolean created;
+
+      @Override
+      public int read(char[] buf, int off, int len) throws IOException {
+        if (!created) {
+          created = true;
+          cache.valueCreated(false, "new");
+        }
+        return super.read(buf, off, len);
+      }
+    };
+    cache.loadBloomFilter(false, export, 100, 0.01);
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("new")));
+  }
+
+  @Test
+  public void valueCreatedWhileExportIsTakenIsKeptByNewFilter() throws IOException {
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    AliasExistenceCache.BloomFilterLoad load = cache.beginBloomFilterLoad(false);
+    cache.valueCreated(false, "new");
+    cache.valueCreated(true, "type");
+    load.load(new StringReader("a\n"), 100, 0.01);
+    assertFalse(cache.isKnownAbsent(SCOPE, false, Arrays.asList("new")));
+    assertTrue(cache.isKnownAbsent(SCOPE, false, Arrays.asList("type")));
+  }
+
+  @Test
+  public void searchSkipsRxsOnceMissIsRecorded() throws RSuiteException {
+    FakeSearchService fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        return new ArrayList<ManagedObject>();
+      }
+    });
+    AliasExistenceCache cache = new AliasExistenceCache(10);
+    QName qname = new QName("book");
+    for (int i = 0; i < 2; i++) {
+      assertTrue(SearchUtils.searchForManagedObjects(null, fake.getSearchService(), cache, qname,
+          false, false, Arrays.asList("isbn"), 0).isEmpty());
+    }
+    assertEquals(1, fake.getQueries().size());
+
+    cache.aliasCreated(null, "isbn");
+    SearchUtils.searchForManagedObjects(null, fake.getSearchService(), cache, qname, false, false,
+        Arrays.asList("isbn"), 0);
+    assertEquals(2, fake.getQueries().size());
+  }
+
+}
@@ -0,0 +1,46 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+  @Test
+  public void addedValuesAreAlwaysFound() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.put("alias-" + i);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertTrue("alias-" + i, filter.mightContain("alias-" + i));
+    }
+  }
+
+  @Test
+  public void falsePositiveRateIsNearTheConfiguredProbability() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.put("alias-" + i);
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("other-" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("False positives: " + falsePositives, falsePositives < 2000);
+  }
+
+  @Test
+  public void emptyFilterContainsNothing() {
+    assertFalse(new BloomFilter(100, 0.01).mightContain("alias"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsProbabilityOfOne() {
+    new BloomFilter(100, 1);
+  }
+
+}
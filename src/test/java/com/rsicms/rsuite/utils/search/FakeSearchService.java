@@ -0,0 +1,192 @@
+package com.rsicms.rsuite.utils.search;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.reallysi.rsuite.api.Alias;
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.MetaDataItem;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.reallysi.rsuite.service.SearchService;
+
+/**
+ * In-memory stand-in for RSuite's search service, for unit tests.
+ * <p>
+ * Queries are answered by a {@link QueryEvaluator} provided by the test. The RSuite interfaces are
+ * implemented with dynamic proxies, so only the methods this library calls are supported.
+ */
+public class FakeSearchService {
+
+  /**
+   * Answers a query on behalf of RXS.
+   */
+  public interface QueryEvaluator {
+
+    /**
+     * @param query
+     * @return the results, in the order RXS is to list them.
+     * @throws RSuiteException
+     */
+    List<ManagedObject> evaluate(String query) throws RSuiteException;
+  }
+
+  private final QueryEvaluator evaluator;
+  private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+  private volatile long resultDelayMillis;
+  private final SearchService searchService;
+
+  public FakeSearchService(QueryEvaluator evaluator) {
+    this.evaluator = evaluator;
+    this.searchService = proxy(SearchService.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().equals("constructSearch")) {
+          return unsupported(proxy, method, args);
+        }
+        for (Object arg : args) {
+          if (arg instanceof String) {
+            return search(method.getReturnType(), (String) arg);
+          }
+        }
+        throw new IllegalArgumentException("No query given.");
+      }
+    });
+  }
+
+  public SearchService getSearchService() {
+    return searchService;
+  }
+
+  /**
+   * @return the queries submitted so far, in order.
+   */
+  public List<String> getQueries() {
+    synchronized (queries) {
+      return new ArrayList<String>(queries);
+    }
+  }
+
+  /**
+   * Make each result take the given time to retrieve.
+   * 
+   * @param resultDelayMillis
+   */
+  public void setResultDelayMillis(long resultDelayMillis) {
+    this.resultDelayMillis = resultDelayMillis;
+  }
+
+  /**
+   * Create an MO with the given ID and no metadata.
+   * 
+   * @param id
+   * @return the MO.
+   */
+  public static ManagedObject mo(String id) {
+    return mo(id, new Date(0), new ArrayList<MetaDataItem>());
+  }
+
+  /**
+   * Create an MO with the given ID, modification date, and LMD.
+   * 
+   * @param id
+   * @param dtModified
+   * @param lmd
+   * @return the MO.
+   */
+  public static ManagedObject mo(final String id, final Date dtModified,
+      final List<MetaDataItem> lmd) {
+    return proxy(ManagedObject.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getId")) {
+          return id;
+        } else if (name.equals("getDisplayName")) {
+          return "MO " + id;
+        } else if (name.equals("getDtCreated")) {
+          return new Date(0);
+        } else if (name.equals("getDtModified")) {
+          return dtModified;
+        } else if (name.equals("getMetaDataItems")) {
+          return lmd;
+        } else if (name.equals("getAliases")) {
+          return Array.newInstance(Alias.class, 0);
+        }
+        return unsupported(proxy, method, args);
+      }
+    });
+  }
+
+  private Object search(Class<?> searchType, final String query) {
+    queries.add(query);
+    return proxy(searchType, new InvocationHandler() {
+      private List<ManagedObject> results;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().equals("getResults")) {
+          return unsupported(proxy, method, args);
+        }
+        if (results == null) {
+          results = evaluator.evaluate(query);
+        }
+        return results(method.getReturnType(), results);
+      }
+    });
+  }
+
+  private Object results(Class<?> resultsType, final List<ManagedObject> results) {
+    return proxy(resultsType, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().equals("getResult")) {
+          return unsupported(proxy, method, args);
+        }
+        int position = (Integer) args[0];
+        if (position < 1 || position > results.size()) {
+          return null;
+        }
+        if (resultDelayMillis > 0) {
+          Thread.sleep(resultDelayMillis);
+        }
+        final ManagedObject mo = results.get(position - 1);
+        return proxy(method.getReturnType(), new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("getManagedObject")) {
+              return unsupported(proxy, method, args);
+            }
+            return mo;
+          }
+        });
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(FakeSearchService.class.getClassLoader(),
+        new Class<?>[] {type}, handler));
+  }
+
+  /**
+   * Handle the methods of Object; reject anything else.
+   */
+  private static Object unsupported(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if (name.equals("equals")) {
+      return proxy == args[0];
+    } else if (name.equals("hashCode")) {
+      return System.identityHashCode(proxy);
+    } else if (name.equals("toString")) {
+      return proxy.getClass().getName();
+    }
+    throw new UnsupportedOperationException(name);
+  }
+
+}
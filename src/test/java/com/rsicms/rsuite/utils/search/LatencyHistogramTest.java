@@ -0,0 +1,50 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void percentilesAreWithinTenPercent() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(millis);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertWithinTenPercent(500, histogram.getPercentile(50));
+    assertWithinTenPercent(990, histogram.getPercentile(99));
+    assertWithinTenPercent(1000, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    assertEquals(0, new LatencyHistogram().getPercentile(99));
+  }
+
+  @Test
+  public void extremeLatenciesAreKept() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(0);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2, histogram.getCount());
+    assertEquals(1, histogram.getPercentile(50));
+    assertTrue(histogram.getPercentile(100) > 24 * 60 * 60 * 1000L);
+  }
+
+  @Test
+  public void resetForgetsLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+  }
+
+  private static void assertWithinTenPercent(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but was " + actual,
+        actual >= expected && actual <= expected * 1.1);
+  }
+
+}
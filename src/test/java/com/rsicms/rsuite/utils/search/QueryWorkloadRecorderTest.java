@@ -0,0 +1,119 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.rsicms.rsuite.utils.search.QueryWorkloadRecorder.RecordedQuery;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+public class QueryWorkloadRecorderTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("workload", ".tsv");
+  }
+
+  @After
+  public void tearDown() {
+    SearchUtils.setQueryWorkloadRecorder(null);
+    file.delete();
+  }
+
+  @Test
+  public void shapeReplacesValuesAndCountsListedValues() {
+    StringBuilder cardinalities = new StringBuilder();
+    assertEquals("/rs_ca_map/rs_ca[mv:metadata/mv:lmd/mv:tag = (?)][@id = ?][@n gt ?]",
+        QueryWorkloadRecorder.getShape(
+            "/rs_ca_map/rs_ca[mv:metadata/mv:lmd/mv:tag = ('a', 'b', 'c')][@id = '7'][@n gt 42]",
+            cardinalities));
+    assertEquals("3", cardinalities.toString());
+  }
+
+  @Test
+  public void queriesOfTheSameShapeDifferOnlyInCardinalities() {
+    StringBuilder one = new StringBuilder();
+    StringBuilder two = new StringBuilder();
+    assertEquals(QueryWorkloadRecorder.getShape("/a[@x = ('1')]", one),
+        QueryWorkloadRecorder.getShape("/a[@x = ('1', '2')]", two));
+    assertEquals("1", one.toString());
+    assertEquals("2", two.toString());
+  }
+
+  @Test
+  public void handlerTimeIsRecordedSeparatelyFromSearchTime() throws Exception {
+    QueryWorkloadRecorder recorder = new QueryWorkloadRecorder(file, true);
+    SearchUtils.setQueryWorkloadRecorder(recorder);
+    SearchUtils.scanObjects(null, fake(3).getSearchService(), "/q\t1", QueryClass.Heavy, null,
+        new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+            try {
+              Thread.sleep(40);
+            } catch (InterruptedException e) {
+              throw new RSuiteException(e.getMessage());
+            }
+            return true;
+          }
+        });
+    recorder.close();
+
+    List<RecordedQuery> queries = QueryWorkloadRecorder.read(file);
+    assertEquals(1, queries.size());
+    RecordedQuery recorded = queries.get(0);
+    assertEquals("/q 1", recorded.getQuery());
+    assertEquals(3, recorded.getResultCount());
+    assertEquals(QueryWorkloadRecorder.OUTCOME_OK, recorded.getOutcome());
+    assertEquals(QueryClass.Heavy, recorded.getQueryClass());
+    assertTrue("Handler took " + recorded.getHandlerMillis(), recorded.getHandlerMillis() >= 120);
+    assertTrue("Search took " + recorded.getSearchMillis(), recorded.getSearchMillis() < 100);
+  }
+
+  @Test
+  public void truncatedSearchIsRecordedAsSuch() throws Exception {
+    QueryWorkloadRecorder recorder = new QueryWorkloadRecorder(file, false);
+    SearchUtils.setQueryWorkloadRecorder(recorder);
+    final SearchCancellationToken token = new SearchCancellationToken(true);
+    SearchUtils.scanObjects(null, fake(3).getSearchService(), "//q", token,
+        new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) {
+            token.cancel();
+            return true;
+          }
+        });
+    recorder.close();
+
+    RecordedQuery recorded = QueryWorkloadRecorder.read(file).get(0);
+    assertEquals(QueryWorkloadRecorder.OUTCOME_TRUNCATED, recorded.getOutcome());
+    assertEquals(1, recorded.getResultCount());
+    assertEquals(QueryClass.Heavy, recorded.getQueryClass());
+    assertEquals("", recorded.getQuery());
+  }
+
+  static FakeSearchService fake(final int resultCount) {
+    return new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        List<ManagedObject> results = new ArrayList<ManagedObject>();
+        for (int i = 1; i <= resultCount; i++) {
+          results.add(FakeSearchService.mo(String.valueOf(i)));
+        }
+        return results;
+      }
+    });
+  }
+
+}
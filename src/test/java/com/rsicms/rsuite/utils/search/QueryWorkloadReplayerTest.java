@@ -0,0 +1,69 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+public class QueryWorkloadReplayerTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("workload", ".tsv");
+  }
+
+  @After
+  public void tearDown() {
+    SearchUtils.setSearchGovernor(null);
+    file.delete();
+  }
+
+  @Test
+  public void onlyCompletedSearchesAreReplayed() throws Exception {
+    QueryWorkloadRecorder recorder = new QueryWorkloadRecorder(file, true);
+    recorder.record("/ok", null, 0, 5, 1, 2, QueryWorkloadRecorder.OUTCOME_OK);
+    recorder.record("/truncated", null, 0, 5, 1, 1, QueryWorkloadRecorder.OUTCOME_TRUNCATED);
+    recorder.record("/error", null, 0, 5, 0, 0, QueryWorkloadRecorder.OUTCOME_ERROR);
+    recorder.record("", null, 0, 5, 0, 0, QueryWorkloadRecorder.OUTCOME_OK);
+    recorder.close();
+
+    FakeSearchService fake = QueryWorkloadRecorderTest.fake(2);
+    QueryWorkloadReplayer.Report report =
+        new QueryWorkloadReplayer(2, 0).replay(null, fake.getSearchService(), file);
+
+    assertEquals(Arrays.asList("/ok"), fake.getQueries());
+    assertEquals(1, report.getCompleted());
+    assertEquals(0, report.getFailed());
+    assertEquals(1, report.getSkipped());
+    assertEquals(2, report.getSkippedIncomplete());
+    assertEquals(2, report.getResults());
+  }
+
+  @Test
+  public void recordedQueryClassIsDeclared() throws Exception {
+    AdaptiveConcurrencyLimit cheapLimit = new AdaptiveConcurrencyLimit(4, 1, 8, 1000, 0.5, 0, 0);
+    AdaptiveConcurrencyLimit heavyLimit = new AdaptiveConcurrencyLimit(2, 1, 4, 1000, 0.5, 0, 0);
+    SearchUtils.setSearchGovernor(new SearchGovernor(cheapLimit, heavyLimit));
+
+    QueryWorkloadRecorder recorder = new QueryWorkloadRecorder(file, true);
+    recorder.record(SearchUtils.XPATH_ANY_CA, QueryClass.Heavy, 0, 5, 1, 2,
+        QueryWorkloadRecorder.OUTCOME_OK);
+    recorder.close();
+
+    new QueryWorkloadReplayer(1, 0).replay(null,
+        QueryWorkloadRecorderTest.fake(2).getSearchService(), file);
+
+    assertEquals(0, cheapLimit.getLatencies().getCount());
+    assertEquals(1, heavyLimit.getLatencies().getCount());
+  }
+
+}
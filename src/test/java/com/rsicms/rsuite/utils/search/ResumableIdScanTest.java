@@ -0,0 +1,200 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+
+public class ResumableIdScanTest {
+
+  private final static String QUERY = SearchUtils.XPATH_ANY_CA;
+
+  private final static Pattern ID_RANGE = Pattern.compile(
+      "\\[mv:metadata/mv:system/mv:id > (-?\\d+)\\]\\[mv:metadata/mv:system/mv:id <= (-?\\d+)\\]");
+
+  private File checkpointFile;
+
+  @Before
+  public void setUp() throws IOException {
+    checkpointFile = File.createTempFile("scan", ".properties");
+    checkpointFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    checkpointFile.delete();
+  }
+
+  @Test
+  public void idRangePredicateComparesNumbers() {
+    assertEquals(
+        "[mv:metadata/mv:system/mv:id > 5][mv:metadata/mv:system/mv:id <= 9]",
+        SearchUtils.getIdRangeXPathPredicate(5, 9));
+  }
+
+  @Test
+  public void gapsDoNotSkipIdsListedOutOfOrder() throws Exception {
+    FakeSearchService fake = fake(5000L, 9000L, 9001L, 250000L);
+    CollectingHandler handler = new CollectingHandler();
+    long count = new ResumableIdScan(QUERY, checkpointFile, 10, 100).run(null,
+        fake.getSearchService(), handler);
+
+    assertEquals(Arrays.asList("5000", "9000", "9001", "250000"), handler.ids);
+    assertEquals(4, count);
+    assertTrue(fake.getQueries().size() < 60);
+  }
+
+  @Test
+  public void denseBlockAfterGapIsNotCollectedAtOnce() throws Exception {
+    List<Long> ids = new ArrayList<Long>();
+    ids.add(1L);
+    for (long id = 100000; id < 100500; id++) {
+      ids.add(id);
+    }
+    CollectingHandler handler = new CollectingHandler();
+    new ResumableIdScan(QUERY, checkpointFile, 1000, 10).run(null,
+        fake(ids.toArray(new Long[ids.size()])).getSearchService(), handler);
+
+    assertEquals(501, handler.ids.size());
+    assertEquals("100499", handler.ids.get(500));
+    for (int batchSize : handler.batchSizes) {
+      assertTrue("Batch of " + batchSize, batchSize <= 10);
+    }
+  }
+
+  @Test
+  public void idsAreHandedOverInBatches() throws Exception {
+    List<Long> ids = new ArrayList<Long>();
+    for (long id = 1; id <= 25; id++) {
+      ids.add(id);
+    }
+    CollectingHandler handler = new CollectingHandler();
+    new ResumableIdScan(QUERY, checkpointFile, 10, 1000).run(null,
+        fake(ids.toArray(new Long[ids.size()])).getSearchService(), handler);
+    assertEquals(Arrays.asList(10, 10, 5), handler.batchSizes);
+  }
+
+  @Test
+  public void scanResumesAfterLastHandledBatch() throws Exception {
+    FakeSearchService fake = fake(1L, 2L, 3L, 4L, 5L, 600L);
+    final List<String> handled = new ArrayList<String>();
+    ResumableIdScan.BatchHandler failing = new ResumableIdScan.BatchHandler() {
+      @Override
+      public void handleBatch(List<String> ids) throws RSuiteException {
+        if (ids.contains("3")) {
+          throw new RSuiteException("Handler failed.");
+        }
+        handled.addAll(ids);
+      }
+    };
+    try {
+      new ResumableIdScan(QUERY, checkpointFile, 2, 100).run(null, fake.getSearchService(),
+          failing);
+      fail("Expected the handler's exception.");
+    } catch (RSuiteException e) {
+      assertEquals(Arrays.asList("1", "2"), handled);
+    }
+
+    CollectingHandler handler = new CollectingHandler();
+    new ResumableIdScan(QUERY, checkpointFile, 2, 100).run(null, fake.getSearchService(),
+        handler);
+    assertEquals(Arrays.asList("3", "4", "5", "600"), handler.ids);
+
+    assertEquals(0, new ResumableIdScan(QUERY, checkpointFile, 2, 100).run(null,
+        fake.getSearchService(), new CollectingHandler()));
+  }
+
+  @Test(expected = IOException.class)
+  public void checkpointOfAnotherQueryIsRejected() throws Exception {
+    FakeSearchService fake = fake(1L);
+    new ResumableIdScan(QUERY, checkpointFile, 2, 100).run(null, fake.getSearchService(),
+        new CollectingHandler());
+    new ResumableIdScan("/other", checkpointFile, 2, 100).run(null, fake.getSearchService(),
+        new CollectingHandler());
+  }
+
+  @Test
+  public void partitionsScanDisjointRanges() throws Exception {
+    List<ResumableIdScan.Range> ranges = ResumableIdScan.partition(0, 1000, 3);
+    assertEquals(3, ranges.size());
+    assertEquals(0, ranges.get(0).getStart());
+    assertEquals(1000, ranges.get(2).getEnd());
+
+    FakeSearchService fake = fake(0L, 333L, 334L, 500L, 999L, 1000L);
+    List<String> all = new ArrayList<String>();
+    for (ResumableIdScan.Range range : ranges) {
+      File file = File.createTempFile("scan", ".properties");
+      file.delete();
+      try {
+        CollectingHandler handler = new CollectingHandler();
+        new ResumableIdScan(QUERY, file, 10, 7, range).run(null, fake.getSearchService(),
+            handler);
+        all.addAll(handler.ids);
+      } finally {
+        file.delete();
+      }
+    }
+    assertEquals(Arrays.asList("0", "333", "334", "500", "999"), all);
+  }
+
+  @Test
+  public void emptyScanCompletes() throws Exception {
+    CollectingHandler handler = new CollectingHandler();
+    assertEquals(0, new ResumableIdScan(QUERY, checkpointFile, 10, 100).run(null,
+        fake().getSearchService(), handler));
+    assertTrue(handler.batchSizes.isEmpty());
+  }
+
+  /**
+   * A search service holding the given IDs, listing them in descending order, which RXS may well
+   * do.
+   */
+  private static FakeSearchService fake(Long... ids) {
+    final List<Long> descending = new ArrayList<Long>(Arrays.asList(ids));
+    Collections.sort(descending, Collections.reverseOrder());
+    return new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        Matcher matcher = ID_RANGE.matcher(query);
+        assertTrue(query, query.startsWith(QUERY) && matcher.find());
+        long afterId = Long.parseLong(matcher.group(1));
+        long throughId = Long.parseLong(matcher.group(2));
+        List<ManagedObject> results = new ArrayList<ManagedObject>();
+        for (Long id : descending) {
+          if (id > afterId && id <= throughId) {
+            results.add(FakeSearchService.mo(id.toString()));
+          }
+        }
+        return results;
+      }
+    });
+  }
+
+  private static class CollectingHandler implements ResumableIdScan.BatchHandler {
+
+    private final List<String> ids = new ArrayList<String>();
+    private final List<Integer> batchSizes = new ArrayList<Integer>();
+
+    @Override
+    public void handleBatch(List<String> batch) {
+      ids.addAll(batch);
+      batchSizes.add(batch.size());
+    }
+  }
+
+}
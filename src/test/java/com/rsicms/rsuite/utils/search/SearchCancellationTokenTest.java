@@ -0,0 +1,121 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+public class SearchCancellationTokenTest {
+
+  private FakeSearchService fake;
+
+  @Before
+  public void setUp() {
+    fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        List<ManagedObject> results = new ArrayList<ManagedObject>();
+        for (int i = 1; i <= 100; i++) {
+          results.add(FakeSearchService.mo(String.valueOf(i)));
+        }
+        return results;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    SearchUtils.setSearchGovernor(null);
+  }
+
+  @Test
+  public void cancelledTokenStopsBeforeSearching() throws RSuiteException {
+    SearchCancellationToken token = new SearchCancellationToken(true);
+    token.cancel();
+    assertTrue(SearchUtils.searchForObjects(null, fake.getSearchService(), "/q", null, 0, token)
+        .isEmpty());
+    assertTrue(token.isTruncated());
+    assertTrue(fake.getQueries().isEmpty());
+  }
+
+  @Test
+  public void deadlineBetweenResultsReturnsPartialResults() throws RSuiteException {
+    fake.setResultDelayMillis(5);
+    SearchCancellationToken token = SearchCancellationToken.withTimeout(50, true);
+    int count = SearchUtils.searchForObjects(null, fake.getSearchService(), "/q", null, 0, token)
+        .size();
+    assertTrue("Collected " + count, count > 0 && count < 100);
+    assertTrue(token.isTruncated());
+  }
+
+  @Test(expected = RSuiteException.class)
+  public void deadlineBetweenResultsThrowsUnlessPartialResultsAllowed() throws RSuiteException {
+    fake.setResultDelayMillis(5);
+    SearchUtils.searchForObjects(null, fake.getSearchService(), "/q", null, 0,
+        SearchCancellationToken.withTimeout(50, false));
+  }
+
+  @Test
+  public void completedSearchIsNotTruncated() throws RSuiteException {
+    SearchCancellationToken token = SearchCancellationToken.withTimeout(60000, true);
+    assertEquals(100,
+        SearchUtils.searchForObjects(null, fake.getSearchService(), "/q", null, 0, token).size());
+    assertFalse(token.isTruncated());
+  }
+
+  @Test
+  public void deadlineWhileWaitingForPermitReturnsPartialResults() throws RSuiteException {
+    SearchGovernor governor = installSingleCheapPermitGovernor();
+    SearchGovernor.Permit permit = governor.acquire(QueryClass.Cheap);
+    try {
+      SearchCancellationToken token = SearchCancellationToken.withTimeout(30, true);
+      assertEquals(0, SearchUtils.scanObjects(null, fake.getSearchService(), "/q", token,
+          new SearchResultHandler() {
+            @Override
+            public boolean handleResult(ManagedObject mo, int position) {
+              return true;
+            }
+          }));
+      assertTrue(token.isTruncated());
+      assertTrue(fake.getQueries().isEmpty());
+    } finally {
+      permit.release();
+    }
+  }
+
+  @Test
+  public void deadlineWhileWaitingForPermitThrowsUnlessPartialResultsAllowed()
+      throws RSuiteException {
+    SearchGovernor governor = installSingleCheapPermitGovernor();
+    SearchGovernor.Permit permit = governor.acquire(QueryClass.Cheap);
+    try {
+      SearchUtils.searchForObjects(null, fake.getSearchService(), "/q", null, 0,
+          SearchCancellationToken.withTimeout(30, false));
+      fail("Expected the search to be rejected.");
+    } catch (RSuiteException e) {
+      assertTrue(fake.getQueries().isEmpty());
+    } finally {
+      permit.release();
+    }
+  }
+
+  private static SearchGovernor installSingleCheapPermitGovernor() {
+    SearchGovernor governor =
+        new SearchGovernor(new AdaptiveConcurrencyLimit(1, 1, 1, 1000, 0.5, 1, 60000),
+            new AdaptiveConcurrencyLimit(1, 1, 1, 1000, 0.5, 1, 60000));
+    SearchUtils.setSearchGovernor(governor);
+    return governor;
+  }
+
+}
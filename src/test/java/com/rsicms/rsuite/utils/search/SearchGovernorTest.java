@@ -0,0 +1,123 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.rsicms.rsuite.utils.search.SearchGovernor.QueryClass;
+
+public class SearchGovernorTest {
+
+  private AdaptiveConcurrencyLimit cheapLimit;
+  private AdaptiveConcurrencyLimit heavyLimit;
+  private FakeSearchService fake;
+
+  @Before
+  public void setUp() {
+    cheapLimit = new AdaptiveConcurrencyLimit(4, 1, 8, 100, 0.5, 0, 0);
+    heavyLimit = new AdaptiveConcurrencyLimit(2, 1, 4, 100, 0.5, 0, 0);
+    SearchUtils.setSearchGovernor(new SearchGovernor(cheapLimit, heavyLimit));
+    fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        List<ManagedObject> results = new ArrayList<ManagedObject>();
+        for (int i = 1; i <= 5; i++) {
+          results.add(FakeSearchService.mo(String.valueOf(i)));
+        }
+        return results;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    SearchUtils.setSearchGovernor(null);
+  }
+
+  @Test
+  public void classifiesDescendantAxisAndWordQueriesAsHeavy() {
+    assertEquals(QueryClass.Cheap, SearchGovernor.classify("/rs_ca_map/rs_ca[@id = '1']"));
+    assertEquals(QueryClass.Heavy, SearchGovernor.classify("//book"));
+    assertEquals(QueryClass.Heavy,
+        SearchGovernor.classify("/rs_ca_map/rs_ca[cts:contains(., 'x')]"));
+  }
+
+  @Test
+  public void stringLiteralsDoNotMakeQueriesHeavy() {
+    assertEquals(QueryClass.Cheap,
+        SearchGovernor.classify(SearchUtils.getXPathExpression(new QName("http://x.org/ns", "book"),
+            false)));
+    assertEquals(QueryClass.Cheap,
+        SearchGovernor.classify(SearchScope.collections("http://x.org/ca/{0}", "10")
+            .apply(SearchUtils.XPATH_ANY_CA)));
+    assertEquals(QueryClass.Cheap, SearchGovernor.classify(SearchUtils.XPATH_ANY_CA
+        + SearchUtils.getLayeredMetadataXPathPredicate("url", "http://x.org/it''s/cts:x")));
+    assertEquals(QueryClass.Heavy, SearchGovernor.classify(
+        SearchUtils.getXPathExpression(new QName("http://x.org/ns", "book"), true)));
+  }
+
+  @Test
+  public void buildersDeclareClassOfQueriesTheyBuild() throws RSuiteException {
+    SearchUtils.searchForManagedObjects(null, fake.getSearchService(), null, null,
+        new QName("http://x.org/ns", "book"), false, false, Arrays.asList("a//b"), 0, null);
+    assertEquals(1, cheapLimit.getLatencies().getCount());
+    assertEquals(0, heavyLimit.getLatencies().getCount());
+  }
+
+  @Test
+  public void declaredClassOverridesClassification() throws RSuiteException {
+    SearchUtils.scanObjects(null, fake.getSearchService(), SearchUtils.XPATH_ANY_CA,
+        QueryClass.Heavy, null, new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) {
+            return true;
+          }
+        });
+    assertEquals(0, cheapLimit.getLatencies().getCount());
+    assertEquals(1, heavyLimit.getLatencies().getCount());
+    assertEquals(0, heavyLimit.getInFlight());
+  }
+
+  @Test
+  public void slowHandlerDoesNotShrinkLimit() throws RSuiteException {
+    SearchUtils.scanObjects(null, fake.getSearchService(), SearchUtils.XPATH_ANY_CA,
+        new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) throws RSuiteException {
+            try {
+              Thread.sleep(40);
+            } catch (InterruptedException e) {
+              throw new RSuiteException(e.getMessage());
+            }
+            return true;
+          }
+        });
+    assertEquals(4, cheapLimit.getLimit());
+    assertTrue(cheapLimit.getLatencies().getPercentile(100) < 100);
+  }
+
+  @Test
+  public void slowFirstResultShrinksLimit() throws RSuiteException {
+    fake.setResultDelayMillis(150);
+    SearchUtils.scanObjects(null, fake.getSearchService(), SearchUtils.XPATH_ANY_CA,
+        new SearchResultHandler() {
+          @Override
+          public boolean handleResult(ManagedObject mo, int position) {
+            return false;
+          }
+        });
+    assertEquals(2, cheapLimit.getLimit());
+  }
+
+}
@@ -0,0 +1,217 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.MetaDataItem;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.rsicms.rsuite.utils.search.SearchResultExporter.Format;
+import com.rsicms.rsuite.utils.search.SearchUtils.SystemMetadata;
+
+public class SearchResultExporterTest {
+
+  private File file;
+  private File tempFile;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("export", ".out");
+    file.delete();
+    tempFile = new File(file.getAbsolutePath().concat(".tmp"));
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    tempFile.delete();
+  }
+
+  @Test
+  public void csvFieldsAreQuotedWhenNecessary() throws Exception {
+    FakeSearchService fake = fake(FakeSearchService.mo("1", new Date(0),
+        Arrays.asList(new MetaDataItem("title", "Say \"hi\", then\nleave"),
+            new MetaDataItem("tag", "a"), new MetaDataItem("tag", "b"))));
+    long count = new SearchResultExporter(Format.CSV,
+        Arrays.asList(SystemMetadata.DisplayName), Arrays.asList("title", "tag"), false, 4)
+            .export(null, fake.getSearchService(), "/q", file);
+
+    assertEquals(1, count);
+    assertEquals(Arrays.asList("id,display-name,title,tag",
+        "1,MO 1,\"Say \"\"hi\"\", then", "leave\",a|b"), readLines(file, false));
+  }
+
+  @Test
+  public void jsonStringsAreEscaped() throws Exception {
+    FakeSearchService fake = fake(FakeSearchService.mo("1", new Date(0),
+        Arrays.asList(new MetaDataItem("title", "\"a\\b\"\t\u0001"))));
+    new SearchResultExporter(Format.NDJSON, Collections.<SystemMetadata>emptyList(),
+        Arrays.asList("title", "missing"), false, 4)
+            .export(null, fake.getSearchService(), "/q", file);
+
+    assertEquals(Arrays.asList("{\"id\":\"1\",\"lmd\":{"
+        + "\"title\":[\"\\\"a\\\\b\\\"\\t\\u0001\"],\"missing\":[]}}"), readLines(file, false));
+  }
+
+  @Test
+  public void gzipOutputHoldsEveryRecord() throws Exception {
+    List<ManagedObject> results = new ArrayList<ManagedObject>();
+    for (int i = 1; i <= 1000; i++) {
+      results.add(FakeSearchService.mo(String.valueOf(i)));
+    }
+    long count = new SearchResultExporter(Format.CSV, Collections.<SystemMetadata>emptyList(),
+        Collections.<String>emptyList(), true, 16)
+            .export(null, fake(results.toArray(new ManagedObject[results.size()]))
+                .getSearchService(), "/q", file);
+
+    assertEquals(1000, count);
+    List<String> lines = readLines(file, true);
+    assertEquals(1001, lines.size());
+    assertEquals("1000", lines.get(1000));
+    assertFalse(tempFile.exists());
+  }
+
+  @Test
+  public void failedSearchLeavesExistingFileUntouched() throws Exception {
+    writeFile(file, "previous export\n");
+    FakeSearchService fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) throws RSuiteException {
+        throw new RSuiteException("Search failed.");
+      }
+    });
+    try {
+      new SearchResultExporter(Format.CSV, Collections.<SystemMetadata>emptyList(),
+          Collections.<String>emptyList(), false, 4)
+              .export(null, fake.getSearchService(), "/q", file);
+      fail("Expected the search's exception.");
+    } catch (RSuiteException e) {
+      assertEquals(Arrays.asList("previous export"), readLines(file, false));
+      assertFalse(tempFile.exists());
+    }
+  }
+
+  @Test
+  public void cancelledExportWithoutPartialResultsLeavesNoFile() throws Exception {
+    FakeSearchService fake = fake(FakeSearchService.mo("1"), FakeSearchService.mo("2"));
+    fake.setResultDelayMillis(30);
+    try {
+      new SearchResultExporter(Format.NDJSON, Collections.<SystemMetadata>emptyList(),
+          Collections.<String>emptyList(), false, 4)
+              .export(null, fake.getSearchService(), "/q", file,
+                  SearchCancellationToken.withTimeout(45, false));
+      fail("Expected the export to be stopped.");
+    } catch (RSuiteException e) {
+      assertFalse(file.exists());
+      assertFalse(tempFile.exists());
+    }
+  }
+
+  @Test
+  public void cancelledExportWithPartialResultsKeepsRecordsWritten() throws Exception {
+    List<ManagedObject> results = new ArrayList<ManagedObject>();
+    for (int i = 1; i <= 100; i++) {
+      results.add(FakeSearchService.mo(String.valueOf(i)));
+    }
+    FakeSearchService fake = fake(results.toArray(new ManagedObject[results.size()]));
+    fake.setResultDelayMillis(5);
+    SearchCancellationToken token = SearchCancellationToken.withTimeout(50, true);
+    long count = new SearchResultExporter(Format.NDJSON, Collections.<SystemMetadata>emptyList(),
+        Collections.<String>emptyList(), false, 4)
+            .export(null, fake.getSearchService(), "/q", file, token);
+
+    assertTrue(token.isTruncated());
+    assertTrue("Exported " + count, count > 0 && count < 100);
+    List<String> lines = readLines(file, false);
+    assertEquals(count, lines.size());
+    assertEquals("{\"id\":\"1\"}", lines.get(0));
+  }
+
+  @Test
+  public void interruptedExportStopsWriterAndLeavesNoFile() throws Exception {
+    final List<ManagedObject> results = new ArrayList<ManagedObject>();
+    for (int i = 1; i <= 100; i++) {
+      results.add(FakeSearchService.mo(String.valueOf(i)));
+    }
+    FakeSearchService fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        // As though the request were abandoned once the search was under way.
+        Thread.currentThread().interrupt();
+        return results;
+      }
+    });
+    try {
+      new SearchResultExporter(Format.NDJSON, Collections.<SystemMetadata>emptyList(),
+          Collections.<String>emptyList(), false, 4)
+              .export(null, fake.getSearchService(), "/q", file);
+      fail("Expected the export to be interrupted.");
+    } catch (RSuiteException e) {
+      assertTrue(Thread.interrupted());
+      assertFalse(file.exists());
+      assertFalse(tempFile.exists());
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        assertFalse(thread.getName().equals("search-result-export-writer") && thread.isAlive());
+      }
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  private static FakeSearchService fake(final ManagedObject... results) {
+    return new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) {
+        return Arrays.asList(results);
+      }
+    });
+  }
+
+  private static List<String> readLines(File file, boolean gzip) throws IOException {
+    InputStream in = new FileInputStream(file);
+    if (gzip) {
+      in = new GZIPInputStream(in);
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    try {
+      List<String> lines = new ArrayList<String>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+      return lines;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SearchScopeTest {
+
+  @Test
+  public void collectionScopeIsTheSourceOfTheExpression() {
+    SearchScope scope = SearchScope.collections("/ca/{0}", "10", " 20 ");
+    assertEquals(Arrays.asList("/ca/10", "/ca/20"), scope.getUris());
+    assertEquals("collection(('/ca/10', '/ca/20'))/rs_ca_map/rs_ca",
+        scope.apply(SearchUtils.XPATH_ANY_CA));
+  }
+
+  @Test
+  public void directoryScopeIncludesSubdirectories() {
+    assertEquals("xdmp:directory(('/ca/10/'), 'infinity')//book",
+        SearchScope.directories("/ca/{0}/", "10").apply("//book"));
+  }
+
+  @Test
+  public void patternIsSubstitutedLiterally() {
+    assertEquals(Arrays.asList("/it's/{1}/10"),
+        SearchScope.collections("/it's/{1}/{0}", "10").getUris());
+  }
+
+  @Test
+  public void literalsAreEscaped() {
+    assertEquals("collection(('/it''s &amp; more/10'))",
+        SearchScope.collections("/it's & more/{0}", "10").getSourceExpression());
+  }
+
+  @Test
+  public void noScopeLeavesExpressionAsIs() {
+    assertEquals("//book", SearchScope.apply(null, "//book"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void patternWithoutPlaceholderIsRejected() {
+    SearchScope.collections("/ca/", "10");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void directoryPatternWithoutTrailingSlashIsRejected() {
+    SearchScope.directories("/ca/{0}", "10");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void containerIdOtherThanRSuiteIdIsRejected() {
+    SearchScope.collections("/ca/{0}", "10') or ('");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void relativeExpressionIsRejected() {
+    SearchScope.collections("/ca/{0}", "10").apply("book");
+  }
+
+}
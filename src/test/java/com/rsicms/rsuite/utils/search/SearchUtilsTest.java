@@ -0,0 +1,18 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+public class SearchUtilsTest {
+
+  @Test
+  public void modifiedSincePredicateComparesDateTimes() {
+    assertEquals(
+        "[mv:metadata/mv:system/mv:last-modified >= xs:dateTime('1970-01-01T00:00:01.500Z')]",
+        SearchUtils.getModifiedSinceXPathPredicate(new Date(1500)));
+  }
+
+}
@@ -0,0 +1,151 @@
+package com.rsicms.rsuite.utils.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.reallysi.rsuite.api.ManagedObject;
+import com.reallysi.rsuite.api.MetaDataItem;
+import com.reallysi.rsuite.api.RSuiteException;
+import com.rsicms.rsuite.utils.search.SearchUtils.SystemMetadata;
+
+public class WarmSearchIndexTest {
+
+  private final static String SCOPE = SearchUtils.XPATH_ANY_CA
+      + SearchUtils.getSystemMetadataXPathPredicate(SystemMetadata.CAType, "book");
+
+  private final static Pattern MODIFIED_SINCE = Pattern.compile(">= xs:dateTime\\('([^']+)'\\)");
+
+  /**
+   * The CAs of type book, by ID.
+   */
+  private final Map<String, ManagedObject> cas = new LinkedHashMap<String, ManagedObject>();
+
+  private FakeSearchService fake;
+
+  @Before
+  public void setUp() {
+    cas.put("1", ca("1", new Date(0), "status", "draft"));
+    cas.put("2", ca("2", new Date(0), "status", "final"));
+    cas.put("3", ca("3", new Date(0), "status", "draft"));
+    fake = new FakeSearchService(new FakeSearchService.QueryEvaluator() {
+      @Override
+      public List<ManagedObject> evaluate(String query) throws RSuiteException {
+        assertTrue(query, query.startsWith(SCOPE));
+        Date since = new Date(0);
+        Matcher matcher = MODIFIED_SINCE.matcher(query);
+        if (matcher.find()) {
+          SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+          format.setTimeZone(TimeZone.getTimeZone("UTC"));
+          try {
+            since = format.parse(matcher.group(1));
+          } catch (ParseException e) {
+            throw new RSuiteException(e.getMessage());
+          }
+        }
+        List<ManagedObject> results = new ArrayList<ManagedObject>();
+        for (ManagedObject mo : cas.values()) {
+          if (!mo.getDtModified().before(since)) {
+            results.add(mo);
+          }
+        }
+        return results;
+      }
+    });
+  }
+
+  @Test
+  public void loadedIndexAnswersLmdLookups() throws RSuiteException {
+    WarmSearchIndex index = new WarmSearchIndex(SCOPE, Arrays.asList("status"), false, 60000);
+    assertNull(index.getIds(SCOPE, null));
+    assertEquals(3, index.load(null, fake.getSearchService()));
+
+    assertEquals(Arrays.asList("1", "3"),
+        sorted(index.getIds(SCOPE, NameValuesPair.getStarterList("status", " draft "))));
+    assertEquals(Arrays.asList("1", "2", "3"), sorted(index.getIds(SCOPE, null)));
+    assertNull(index.getIds(SCOPE, NameValuesPair.getStarterList("region", "eu")));
+    assertNull(index.getIds(SearchUtils.XPATH_ANY_CA, null));
+  }
+
+  @Test
+  public void contentAssemblyIdSearchIsAnsweredByIndex() throws RSuiteException {
+    WarmSearchIndex index = new WarmSearchIndex(SCOPE, Arrays.asList("status"), false, 60000);
+    index.load(null, fake.getSearchService());
+    List<String> ids = SearchUtils.searchForContentAssemblyIds(null, fake.getSearchService(),
+        index, "book", NameValuesPair.getStarterList("status", "final"), 0);
+    assertEquals(Arrays.asList("2"), ids);
+    assertEquals(1, fake.getQueries().size());
+  }
+
+  @Test
+  public void refreshReindexesModifiedObjects() throws RSuiteException {
+    WarmSearchIndex index = new WarmSearchIndex(SCOPE, Arrays.asList("status"), false, 60000);
+    index.setClockSkewMillis(0);
+    index.load(null, fake.getSearchService());
+    cas.put("1", ca("1", new Date(System.currentTimeMillis() + 60000), "status", "final"));
+
+    assertEquals(1, index.refresh(null, fake.getSearchService()));
+    assertTrue(fake.getQueries().get(1).contains(
+        "[mv:metadata/mv:system/mv:last-modified >= xs:dateTime('"));
+    assertEquals(Arrays.asList("1", "2"),
+        sorted(index.getIds(SCOPE, NameValuesPair.getStarterList("status", "final"))));
+    assertEquals(Arrays.asList("3"),
+        sorted(index.getIds(SCOPE, NameValuesPair.getStarterList("status", "draft"))));
+  }
+
+  @Test
+  public void refreshDoesNotExtendStalenessBound() throws Exception {
+    WarmSearchIndex index = new WarmSearchIndex(SCOPE, Arrays.asList("status"), false, 300);
+    index.load(null, fake.getSearchService());
+    Date loadedAt = index.getLoadedAt();
+    Thread.sleep(50);
+    index.refresh(null, fake.getSearchService());
+    assertEquals(loadedAt, index.getLoadedAt());
+    assertTrue(index.getAsOf().after(loadedAt));
+
+    Thread.sleep(300);
+    assertFalse(index.isFresh());
+    assertNull(index.getIds(SCOPE, null));
+  }
+
+  @Test
+  public void refreshPastStalenessBoundReloadsAndForgetsDeletedObjects() throws Exception {
+    WarmSearchIndex index = new WarmSearchIndex(SCOPE, Arrays.asList("status"), false, 20);
+    index.load(null, fake.getSearchService());
+    cas.remove("2");
+    Thread.sleep(40);
+
+    assertEquals(2, index.refresh(null, fake.getSearchService()));
+    assertFalse(fake.getQueries().get(1).contains("xs:dateTime"));
+    assertTrue(index.isFresh());
+    assertEquals(Arrays.asList("1", "3"), sorted(index.getIds(SCOPE, null)));
+  }
+
+  private static ManagedObject ca(String id, Date dtModified, String lmdName, String lmdValue) {
+    return FakeSearchService.mo(id, dtModified,
+        Arrays.asList(new MetaDataItem(lmdName, lmdValue)));
+  }
+
+  private static List<String> sorted(List<String> ids) {
+    Collections.sort(ids);
+    return ids;
+  }
+
+}